@@ -0,0 +1,88 @@
+package simplf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times the engines against each other on SimPL-F scripts. Every script is
+ * parsed, resolved and run afresh for each run; after a few warm-up runs the
+ * median of the timed runs is reported, together with the speedup over the
+ * first engine listed. Script output is discarded.
+ *
+ * Usage: java simplf.Benchmark [--engines=tree,register] [--runs=N] script...
+ */
+public class Benchmark {
+    private static final int WARMUP = 2;
+
+    public static void main(String[] args) throws IOException {
+        List<String> engines = List.of("tree", "closure", "stack", "nanbox", "register");
+        int runs = 5;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--engines=")) {
+                engines = List.of(arg.substring("--engines=".length()).split(","));
+            } else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else {
+                scripts.add(arg);
+            }
+        }
+        for (String engine : engines) {
+            if (Simplf.engine(engine) == null) {
+                System.err.println("Unknown engine: " + engine);
+                System.exit(64);
+            }
+        }
+
+        Output out = Interpreter.output;
+        System.out.printf("%-28s %-10s %10s %8s%n", "script", "engine", "median ms", "speedup");
+        for (String script : scripts) {
+            String source = new String(Files.readAllBytes(Paths.get(script)), Charset.defaultCharset());
+            double baseline = 0;
+            for (String engine : engines) {
+                long[] times = new long[runs];
+                Interpreter.output = new Output(Channels.newChannel(OutputStream.nullOutputStream()));
+                try {
+                    for (int i = 0; i < WARMUP; i++) {
+                        time(source, engine);
+                    }
+                    for (int i = 0; i < runs; i++) {
+                        times[i] = time(source, engine);
+                    }
+                } finally {
+                    Interpreter.output = out;
+                }
+                Arrays.sort(times);
+                double median = times[runs / 2] / 1e6;
+                if (baseline == 0) {
+                    baseline = median;
+                }
+                System.out.printf("%-28s %-10s %10.1f %7.2fx%n",
+                    Paths.get(script).getFileName(), engine, median, baseline / median);
+            }
+        }
+    }
+
+    /**
+     * Runs the script once on a fresh engine; returns the nanoseconds spent
+     * executing it, leaving out parsing and resolution.
+     */
+    private static long time(String source, String engineName) {
+        List<Stmt> stmts = Simplf.optimize(Simplf.parse(source), true);
+        Resolver resolver = new Resolver();
+        resolver.resolve(stmts);
+        Engine engine = Simplf.engine(engineName);
+        engine.globals().extend(resolver.globalNames());
+        long start = System.nanoTime();
+        engine.interpret(stmts);
+        Interpreter.output.flush();
+        return System.nanoTime() - start;
+    }
+}
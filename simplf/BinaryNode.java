@@ -0,0 +1,216 @@
+package simplf;
+
+/**
+ * Execution strategy of an Expr.Binary node. Every node starts uninitialized
+ * and, on its first execution, rewrites itself into a variant specialized to
+ * the operand types it saw. A specialized variant only guards on those types;
+ * when the guard fails the node falls back to the generic variant for good.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    abstract Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right);
+
+    /**
+     * Evaluates the operands and applies the operator. Numeric variants
+     * evaluate their operands unboxed and box only the result.
+     */
+    Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluate(expr.left);
+        Object right = interpreter.evaluate(expr.right);
+        return execute(interpreter, expr, left, right);
+    }
+
+    /**
+     * Evaluates the node for a consumer that needs a number.
+     */
+    double executeDouble(Interpreter interpreter, Expr.Binary expr) throws UnexpectedResult {
+        return UnexpectedResult.expectDouble(evaluate(interpreter, expr));
+    }
+
+    /**
+     * Evaluates the node for a consumer that needs a condition.
+     */
+    boolean executeBoolean(Interpreter interpreter, Expr.Binary expr) {
+        return Interpreter.isTruthy(evaluate(interpreter, expr));
+    }
+
+    /**
+     * Variant for the operand types seen; GENERIC if the operator has no
+     * specialization for them.
+     */
+    static BinaryNode specialize(TokenType op, Object left, Object right) {
+        if (op == TokenType.PLUS && (Rope.isString(left) || Rope.isString(right))) {
+            return CONCAT;
+        }
+        if (!(left instanceof Double && right instanceof Double)) {
+            return GENERIC;
+        }
+        switch (op) {
+            case PLUS: return ADD;
+            case MINUS: return SUBTRACT;
+            case STAR: return MULTIPLY;
+            case SLASH: return DIVIDE;
+            case GREATER: return GREATER;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            default: return GENERIC;
+        }
+    }
+
+    static Object despecialize(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+        expr.node = GENERIC;
+        return GENERIC.execute(interpreter, expr, left, right);
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr.op.type, left, right);
+            expr.node = node;
+            return node.execute(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            return Interpreter.binary(expr.op, left, right);
+        }
+    }
+
+    // double op double -> double
+    private abstract static class Arithmetic extends BinaryNode {
+        abstract double apply(Expr.Binary expr, double a, double b);
+
+        @Override
+        final Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply(expr, (Double) left, (Double) right);
+            }
+            return despecialize(interpreter, expr, left, right);
+        }
+
+        @Override
+        final Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedResult e) {
+                return e.value;
+            }
+        }
+
+        // An operand of another type despecializes the node with the
+        // values computed so far.
+        @Override
+        final double executeDouble(Interpreter interpreter, Expr.Binary expr) throws UnexpectedResult {
+            double a;
+            try {
+                a = interpreter.evaluateDouble(expr.left);
+            } catch (UnexpectedResult e) {
+                Object right = interpreter.evaluate(expr.right);
+                return UnexpectedResult.expectDouble(despecialize(interpreter, expr, e.value, right));
+            }
+            double b;
+            try {
+                b = interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedResult e) {
+                return UnexpectedResult.expectDouble(despecialize(interpreter, expr, a, e.value));
+            }
+            return apply(expr, a, b);
+        }
+    }
+
+    // double op double -> boolean
+    private abstract static class Comparison extends BinaryNode {
+        abstract boolean apply(double a, double b);
+
+        @Override
+        final Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((Double) left, (Double) right);
+            }
+            return despecialize(interpreter, expr, left, right);
+        }
+
+        @Override
+        final Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            return executeBoolean(interpreter, expr);
+        }
+
+        @Override
+        final boolean executeBoolean(Interpreter interpreter, Expr.Binary expr) {
+            double a;
+            try {
+                a = interpreter.evaluateDouble(expr.left);
+            } catch (UnexpectedResult e) {
+                Object right = interpreter.evaluate(expr.right);
+                return Interpreter.isTruthy(despecialize(interpreter, expr, e.value, right));
+            }
+            double b;
+            try {
+                b = interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedResult e) {
+                return Interpreter.isTruthy(despecialize(interpreter, expr, a, e.value));
+            }
+            return apply(a, b);
+        }
+    }
+
+    static final BinaryNode CONCAT = new BinaryNode() {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (Rope.isString(left) || Rope.isString(right)) {
+                return Rope.concat(left, right);
+            }
+            return despecialize(interpreter, expr, left, right);
+        }
+    };
+
+    static final BinaryNode ADD = new Arithmetic() {
+        @Override
+        double apply(Expr.Binary expr, double a, double b) { return a + b; }
+    };
+
+    static final BinaryNode SUBTRACT = new Arithmetic() {
+        @Override
+        double apply(Expr.Binary expr, double a, double b) { return a - b; }
+    };
+
+    static final BinaryNode MULTIPLY = new Arithmetic() {
+        @Override
+        double apply(Expr.Binary expr, double a, double b) { return a * b; }
+    };
+
+    static final BinaryNode DIVIDE = new Arithmetic() {
+        @Override
+        double apply(Expr.Binary expr, double a, double b) {
+            if (b == 0.0) {
+                throw new RuntimeError(expr.op, "Cannot divide by zero.");
+            }
+            return a / b;
+        }
+    };
+
+    static final BinaryNode GREATER = new Comparison() {
+        @Override
+        boolean apply(double a, double b) { return a > b; }
+    };
+
+    static final BinaryNode GREATER_EQUAL = new Comparison() {
+        @Override
+        boolean apply(double a, double b) { return a >= b; }
+    };
+
+    static final BinaryNode LESS = new Comparison() {
+        @Override
+        boolean apply(double a, double b) { return a < b; }
+    };
+
+    static final BinaryNode LESS_EQUAL = new Comparison() {
+        @Override
+        boolean apply(double a, double b) { return a <= b; }
+    };
+}
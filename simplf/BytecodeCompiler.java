@@ -0,0 +1,366 @@
+package simplf;
+
+import static simplf.Opcode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Compiles resolved, desugared statements into a Chunk for the StackVM.
+ * Variable instructions use the Resolver's addresses directly; the Resolver
+ * only hands out depth 0 for locals (nested blocks share their frame and
+ * functions reach outer variables through captures), so a local is always
+ * a slot of the current frame. Nested function bodies are compiled
+ * separately, on their first call.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private int[] code = new int[64];
+    private int length;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    // Operand stack depth at the current instruction, and its maximum.
+    private int depth, maxDepth;
+
+    private BytecodeCompiler() {
+
+    }
+
+    /**
+     * Compiles a top-level program, which ends with HALT.
+     */
+    static Chunk compileScript(List<Stmt> stmts) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        for (Stmt stmt : stmts) {
+            stmt.accept(compiler);
+        }
+        compiler.emit(HALT, 0);
+        return compiler.chunk();
+    }
+
+    /**
+     * Compiles a function body, which returns the value of its last statement
+     * if that is an expression statement, and nil otherwise.
+     */
+    static Chunk compileFunction(Function function) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        List<Stmt> body = function.body;
+        for (int i = 0; i < body.size(); i++) {
+            Stmt stmt = body.get(i);
+            if (i == body.size() - 1 && stmt instanceof Expression) {
+                ((Expression) stmt).expr.accept(compiler);
+                compiler.emit(RETURN, -1);
+                return compiler.chunk();
+            }
+            stmt.accept(compiler);
+        }
+        compiler.emit(CONST, compiler.constant(null), 1);
+        compiler.emit(RETURN, -1);
+        return compiler.chunk();
+    }
+
+    private Chunk chunk() {
+        return new Chunk(Arrays.copyOf(code, length), constants.toArray(), maxDepth);
+    }
+
+    // --- Emitting ---
+
+    private void write(int word) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = word;
+    }
+
+    // Each emit records the instruction's net effect on the stack depth.
+    private void emit(int op, int effect) {
+        write(op);
+        adjust(effect);
+    }
+
+    private void emit(int op, int operand, int effect) {
+        write(op);
+        write(operand);
+        adjust(effect);
+    }
+
+    private void emit(int op, int first, int second, int effect) {
+        write(op);
+        write(first);
+        write(second);
+        adjust(effect);
+    }
+
+    private void adjust(int effect) {
+        depth += effect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Emits a forward jump and returns the position of its target operand.
+     */
+    private int jump(int op, int effect) {
+        emit(op, -1, effect);
+        return length - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = length;
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expr.accept(this);
+        emit(PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Expression stmt) {
+        stmt.expr.accept(this);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        } else {
+            emit(CONST, constant(null), 1);
+        }
+        emit(DEFINE, stmt.slot, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        if (stmt.layout != null) {
+            emit(FRAME, constant(stmt.layout), 0);
+            for (Stmt inner : stmt.statements) {
+                inner.accept(this);
+            }
+            emit(END_FRAME, 0);
+            return null;
+        }
+        boolean scoped = stmt.end > stmt.start;
+        if (scoped && stmt.cells.length > 0) {
+            emit(ENTER_BLOCK, constant(stmt.cells), 0);
+        }
+        for (Stmt inner : stmt.statements) {
+            inner.accept(this);
+        }
+        if (scoped) {
+            emit(EXIT_BLOCK, stmt.start, stmt.end, 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        stmt.cond.accept(this);
+        int elseJump = jump(JUMP_IF_FALSE, -1);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            patch(elseJump);
+            return null;
+        }
+        int endJump = jump(JUMP, 0);
+        patch(elseJump);
+        stmt.elseBranch.accept(this);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        if (stmt.layout != null) {
+            emit(FRAME, constant(stmt.layout), 0);
+        }
+        int loop = length;
+        stmt.cond.accept(this);
+        int exitJump = jump(JUMP_IF_FALSE, -1);
+        stmt.body.accept(this);
+        emit(JUMP, loop, 0);
+        patch(exitJump);
+        if (stmt.layout != null) {
+            emit(END_FRAME, 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        // For loops are desugared before compilation.
+        throw new UnsupportedOperationException("For loops are not compiled.");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        emit(CLOSURE, constant(stmt), 1);
+        emit(DEFINE, stmt.slot, -1);
+        return null;
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        expr.left.accept(this);
+        if (expr.op.type == TokenType.COMMA) {
+            emit(POP, -1);
+            expr.right.accept(this);
+            return null;
+        }
+        expr.right.accept(this);
+        int token = constant(expr.op);
+        switch (expr.op.type) {
+            case PLUS: emit(ADD, token, -1); break;
+            case MINUS: emit(SUBTRACT, token, -1); break;
+            case STAR: emit(MULTIPLY, token, -1); break;
+            case SLASH: emit(DIVIDE, token, -1); break;
+            case GREATER: emit(Opcode.GREATER, token, -1); break;
+            case GREATER_EQUAL: emit(Opcode.GREATER_EQUAL, token, -1); break;
+            case LESS: emit(Opcode.LESS, token, -1); break;
+            case LESS_EQUAL: emit(Opcode.LESS_EQUAL, token, -1); break;
+            case EQUAL_EQUAL: emit(EQUAL, -1); break;
+            case BANG_EQUAL: emit(NOT_EQUAL, -1); break;
+            default:
+                // Operators the interpreter does not evaluate yield nil.
+                emit(POP, -1);
+                emit(POP, -1);
+                emit(CONST, constant(null), 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        expr.right.accept(this);
+        switch (expr.op.type) {
+            case MINUS: emit(NEGATE, constant(expr.op), 0); break;
+            case BANG: emit(Opcode.NOT, 0); break;
+            default:
+                emit(POP, -1);
+                emit(CONST, constant(null), 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        emit(CONST, constant(expr.val), 1);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Variable expr) {
+        int op;
+        if (expr.depth == Resolver.GLOBAL) {
+            op = GET_GLOBAL;
+        } else if (expr.upvalue) {
+            op = expr.boxed ? GET_UPVALUE_CELL : GET_UPVALUE;
+        } else {
+            op = expr.boxed ? GET_LOCAL_CELL : GET_LOCAL;
+        }
+        emit(op, expr.slot, constant(expr.name), 1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        expr.value.accept(this);
+        int op;
+        if (expr.depth == Resolver.GLOBAL) {
+            op = SET_GLOBAL;
+        } else {
+            op = expr.upvalue ? SET_UPVALUE : SET_LOCAL;
+        }
+        emit(op, expr.slot, constant(expr.name), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        expr.left.accept(this);
+        int op = expr.op.type == TokenType.OR ? JUMP_IF_TRUE_OR_POP : JUMP_IF_FALSE_OR_POP;
+        int endJump = jump(op, -1);
+        expr.right.accept(this);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Conditional expr) {
+        expr.cond.accept(this);
+        int elseJump = jump(JUMP_IF_FALSE, -1);
+        expr.thenBranch.accept(this);
+        int endJump = jump(JUMP, 0);
+        // Only one branch leaves its value on the stack.
+        depth--;
+        patch(elseJump);
+        expr.elseBranch.accept(this);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        int paren = constant(expr.paren);
+        expr.callee.accept(this);
+        // The callee is checked before any argument is evaluated.
+        emit(CALLABLE, paren, 0);
+        for (Expr arg : expr.args) {
+            arg.accept(this);
+        }
+        emit(CALL, expr.args.size(), paren, -expr.args.size());
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        emit(CLOSURE, constant(expr.declaration), 1);
+        return null;
+    }
+}
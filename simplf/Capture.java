@@ -0,0 +1,23 @@
+package simplf;
+
+/**
+ * One free variable of a function or lambda, and where to fetch it when the
+ * closure is created: a slot of a frame at the definition site, or a capture of
+ * the enclosing function. Built by the Resolver.
+ */
+class Capture {
+    final Symbol name;
+    // Frame hops from the definition site, then a slot (or a capture index
+    // of the enclosing function when upvalue is set).
+    final int depth, slot;
+    final boolean upvalue;
+    // Shared through a Cell rather than copied by value.
+    boolean boxed;
+
+    Capture(Symbol name, int depth, int slot, boolean upvalue) {
+        this.name = name;
+        this.depth = depth;
+        this.slot = slot;
+        this.upvalue = upvalue;
+    }
+}
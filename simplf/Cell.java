@@ -0,0 +1,10 @@
+package simplf;
+
+/**
+ * A mutable box holding one variable that closures share. Variables that are
+ * captured and may change after the capture live in a Cell, so the defining
+ * frame and every closure see the same value.
+ */
+final class Cell {
+    Object value = Environment.UNDEFINED;
+}
@@ -0,0 +1,19 @@
+package simplf;
+
+/**
+ * Compiled code of a top-level program or a function body for one of the
+ * VMs: the instruction stream, the constants its operands index, and the
+ * most scratch slots it uses at once (operand stack slots for the stack VM,
+ * temporary registers for the register VM).
+ */
+final class Chunk {
+    final int[] code;
+    final Object[] constants;
+    final int scratch;
+
+    Chunk(int[] code, Object[] constants, int scratch) {
+        this.code = code;
+        this.constants = constants;
+        this.scratch = scratch;
+    }
+}
@@ -0,0 +1,468 @@
+package simplf;
+
+import java.util.List;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Turns resolved, desugared statements into a tree of Evaluators for the
+ * ClosureEngine. Every decision the tree walker makes per evaluation (which
+ * visitor method, which operator, which kind of variable address) is made
+ * here once, and the resulting lambda only holds its operands. Function
+ * bodies are compiled on their first call.
+ */
+class ClosureCompiler implements Expr.Visitor<Evaluator>, Stmt.Visitor<Evaluator> {
+    private final Environment globals;
+
+    ClosureCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    Evaluator compileScript(List<Stmt> stmts) {
+        Evaluator[] body = compileAll(stmts);
+        return env -> {
+            for (Evaluator stmt : body) {
+                stmt.evaluate(env);
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Compiles a function body, which returns the value of its last statement
+     * if that is an expression statement, and nil otherwise.
+     */
+    private Evaluator compileFunction(Function function) {
+        List<Stmt> stmts = function.body;
+        if (stmts.isEmpty() || !(stmts.get(stmts.size() - 1) instanceof Expression)) {
+            return compileScript(stmts);
+        }
+        Evaluator[] body = compileAll(stmts.subList(0, stmts.size() - 1));
+        Evaluator last = compile(((Expression) stmts.get(stmts.size() - 1)).expr);
+        if (body.length == 0) {
+            return last;
+        }
+        return env -> {
+            for (Evaluator stmt : body) {
+                stmt.evaluate(env);
+            }
+            return last.evaluate(env);
+        };
+    }
+
+    private Evaluator bodyOf(Function declaration) {
+        if (declaration.closureBody == null) {
+            declaration.closureBody = compileFunction(declaration);
+        }
+        return declaration.closureBody;
+    }
+
+    private Evaluator compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Evaluator compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Evaluator[] compileAll(List<Stmt> stmts) {
+        Evaluator[] compiled = new Evaluator[stmts.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(stmts.get(i));
+        }
+        return compiled;
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Evaluator visitPrintStmt(Print stmt) {
+        Evaluator expr = compile(stmt.expr);
+        return env -> {
+            Interpreter.output.println(expr.evaluate(env));
+            return null;
+        };
+    }
+
+    @Override
+    public Evaluator visitExprStmt(Expression stmt) {
+        // The value of a statement is ignored.
+        return compile(stmt.expr);
+    }
+
+    @Override
+    public Evaluator visitVarStmt(Var stmt) {
+        int slot = stmt.slot;
+        if (stmt.initializer == null) {
+            return env -> {
+                env.define(slot, null);
+                return null;
+            };
+        }
+        Evaluator initializer = compile(stmt.initializer);
+        return env -> {
+            env.define(slot, initializer.evaluate(env));
+            return null;
+        };
+    }
+
+    @Override
+    public Evaluator visitBlockStmt(Block stmt) {
+        Evaluator[] body = compileAll(stmt.statements);
+        if (stmt.layout != null) {
+            // Outermost block of top-level code: create its frame.
+            Layout layout = stmt.layout;
+            return env -> {
+                Environment frame = new Environment(env, layout);
+                for (Evaluator inner : body) {
+                    inner.evaluate(frame);
+                }
+                return null;
+            };
+        }
+        if (stmt.end == stmt.start) {
+            return env -> {
+                for (Evaluator inner : body) {
+                    inner.evaluate(env);
+                }
+                return null;
+            };
+        }
+        int[] cells = stmt.cells;
+        int start = stmt.start, end = stmt.end;
+        return env -> {
+            env.enterBlock(cells);
+            for (Evaluator inner : body) {
+                inner.evaluate(env);
+            }
+            env.exitBlock(start, end);
+            return null;
+        };
+    }
+
+    @Override
+    public Evaluator visitIfStmt(If stmt) {
+        Evaluator cond = compile(stmt.cond);
+        Evaluator thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return env -> {
+                if (Interpreter.isTruthy(cond.evaluate(env))) {
+                    thenBranch.evaluate(env);
+                }
+                return null;
+            };
+        }
+        Evaluator elseBranch = compile(stmt.elseBranch);
+        return env -> {
+            if (Interpreter.isTruthy(cond.evaluate(env))) {
+                thenBranch.evaluate(env);
+            } else {
+                elseBranch.evaluate(env);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Evaluator visitWhileStmt(While stmt) {
+        Evaluator cond = compile(stmt.cond);
+        Evaluator body = compile(stmt.body);
+        if (stmt.layout != null) {
+            // Top-level loop: one frame for the blocks of every iteration.
+            Layout layout = stmt.layout;
+            return env -> {
+                Environment frame = new Environment(env, layout);
+                while (Interpreter.isTruthy(cond.evaluate(frame))) {
+                    body.evaluate(frame);
+                }
+                return null;
+            };
+        }
+        return env -> {
+            while (Interpreter.isTruthy(cond.evaluate(env))) {
+                body.evaluate(env);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Evaluator visitForStmt(For stmt) {
+        // For loops are desugared before compilation.
+        throw new UnsupportedOperationException("For loops are not compiled.");
+    }
+
+    @Override
+    public Evaluator visitFunctionStmt(Function stmt) {
+        int slot = stmt.slot;
+        return env -> {
+            env.define(slot, new SimplfFunction(stmt, env));
+            return null;
+        };
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Evaluator visitBinary(Binary expr) {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+        Token op = expr.op;
+        switch (op.type) {
+            case PLUS:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l + (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case MINUS:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l - (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case STAR:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l * (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case SLASH:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double && (Double) r != 0.0) {
+                        return (Double) l / (Double) r;
+                    }
+                    return Interpreter.binary(op, l, r);
+                };
+            case GREATER:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l > (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case GREATER_EQUAL:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l >= (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case LESS:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l < (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case LESS_EQUAL:
+                return env -> {
+                    Object l = left.evaluate(env), r = right.evaluate(env);
+                    if (l instanceof Double && r instanceof Double) return (Double) l <= (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case EQUAL_EQUAL:
+                return env -> Interpreter.isEqual(left.evaluate(env), right.evaluate(env));
+            case BANG_EQUAL:
+                return env -> !Interpreter.isEqual(left.evaluate(env), right.evaluate(env));
+            case COMMA:
+                return env -> {
+                    left.evaluate(env);
+                    return right.evaluate(env);
+                };
+            default:
+                // Operators the interpreter does not evaluate yield nil.
+                return env -> {
+                    left.evaluate(env);
+                    right.evaluate(env);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public Evaluator visitUnary(Unary expr) {
+        Evaluator right = compile(expr.right);
+        Token op = expr.op;
+        switch (op.type) {
+            case MINUS:
+                return env -> {
+                    Object value = right.evaluate(env);
+                    if (value instanceof Double) return -(Double) value;
+                    return Interpreter.unary(op, value);
+                };
+            case BANG:
+                return env -> !Interpreter.isTruthy(right.evaluate(env));
+            default:
+                return env -> {
+                    right.evaluate(env);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public Evaluator visitLiteral(Literal expr) {
+        Object value = expr.val;
+        return env -> value;
+    }
+
+    @Override
+    public Evaluator visitGrouping(Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Evaluator visitVarExpr(Variable expr) {
+        int slot = expr.slot;
+        Token name = expr.name;
+        if (expr.depth == Resolver.GLOBAL) {
+            return env -> {
+                Object value = globals.values[slot];
+                return value != Environment.UNDEFINED ? value : env.get(name);
+            };
+        }
+        // Fall back to the by-name lookup only when the declaration has not run yet.
+        if (expr.upvalue) {
+            if (expr.boxed) {
+                return env -> {
+                    Object value = ((Cell) ((SimplfFunction.HybridEnv) env).captures[slot]).value;
+                    return value != Environment.UNDEFINED ? value : env.get(name);
+                };
+            }
+            return env -> {
+                Object value = ((SimplfFunction.HybridEnv) env).captures[slot];
+                return value != Environment.UNDEFINED ? value : env.get(name);
+            };
+        }
+        if (expr.boxed) {
+            return env -> {
+                Object value = ((Cell) env.values[slot]).value;
+                return value != Environment.UNDEFINED ? value : env.get(name);
+            };
+        }
+        return env -> {
+            Object value = env.values[slot];
+            return value != Environment.UNDEFINED ? value : env.get(name);
+        };
+    }
+
+    @Override
+    public Evaluator visitAssignExpr(Assign expr) {
+        Evaluator valueOf = compile(expr.value);
+        int slot = expr.slot;
+        Token name = expr.name;
+        if (expr.depth == Resolver.GLOBAL) {
+            return env -> {
+                Object value = valueOf.evaluate(env);
+                if (!Environment.store(globals.values, slot, value)) env.assign(name, value);
+                return value;
+            };
+        }
+        if (expr.upvalue) {
+            return env -> {
+                Object value = valueOf.evaluate(env);
+                if (!Environment.store(((SimplfFunction.HybridEnv) env).captures, slot, value)) {
+                    env.assign(name, value);
+                }
+                return value;
+            };
+        }
+        return env -> {
+            Object value = valueOf.evaluate(env);
+            if (!Environment.store(env.values, slot, value)) env.assign(name, value);
+            return value;
+        };
+    }
+
+    @Override
+    public Evaluator visitLogicalExpr(Logical expr) {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+        if (expr.op.type == TokenType.OR) {
+            return env -> {
+                Object value = left.evaluate(env);
+                return Interpreter.isTruthy(value) ? value : right.evaluate(env);
+            };
+        }
+        return env -> {
+            Object value = left.evaluate(env);
+            return !Interpreter.isTruthy(value) ? value : right.evaluate(env);
+        };
+    }
+
+    @Override
+    public Evaluator visitConditionalExpr(Conditional expr) {
+        Evaluator cond = compile(expr.cond);
+        Evaluator thenBranch = compile(expr.thenBranch);
+        Evaluator elseBranch = compile(expr.elseBranch);
+        return env -> Interpreter.isTruthy(cond.evaluate(env))
+            ? thenBranch.evaluate(env)
+            : elseBranch.evaluate(env);
+    }
+
+    @Override
+    public Evaluator visitCallExpr(Call expr) {
+        Evaluator callee = compile(expr.callee);
+        Evaluator[] args = new Evaluator[expr.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(expr.args.get(i));
+        }
+        Token paren = expr.paren;
+        return env -> {
+            Object value = callee.evaluate(env);
+            // The callee is checked before any argument is evaluated.
+            if (!(value instanceof SimplfFunction)) {
+                throw new RuntimeError(paren, "Can only call functions.");
+            }
+            SimplfFunction function = (SimplfFunction) value;
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].evaluate(env);
+            }
+            if (args.length != function.arity()) {
+                throw new RuntimeError(paren, "Expected " + function.arity() +
+                                       " arguments but got " + args.length + ".");
+            }
+            MemoCache memo = Simplf.memo;
+            if (memo == null || !function.declaration.pure) {
+                return call(function, values, env);
+            }
+            Object result = memo.get(function.declaration, values);
+            if (result == MemoCache.MISSING) {
+                result = call(function, values, env);
+                memo.put(function.declaration, values, result);
+            }
+            return result;
+        };
+    }
+
+    private Object call(SimplfFunction function, Object[] args, Environment caller) {
+        Environment frame = new SimplfFunction.HybridEnv(globals, function, caller);
+        for (int i = 0; i < args.length; i++) {
+            frame.define(i, args[i]);
+        }
+        return bodyOf(function.declaration).evaluate(frame);
+    }
+
+    @Override
+    public Evaluator visitLambda(Lambda expr) {
+        Function declaration = expr.declaration;
+        return env -> new SimplfFunction(declaration, env);
+    }
+}
@@ -0,0 +1,28 @@
+package simplf;
+
+import java.util.List;
+
+/**
+ * Runs programs as trees of Evaluators built by the ClosureCompiler. The
+ * frames are the Environments the tree walker uses; only the dispatch on
+ * node types and operators is done once, at compile time.
+ */
+class ClosureEngine implements Engine {
+    private final Environment globals = new Environment();
+    private final ClosureCompiler compiler = new ClosureCompiler(globals);
+
+    @Override
+    public Environment globals() {
+        return globals;
+    }
+
+    @Override
+    public void interpret(List<Stmt> stmts) {
+        Evaluator program = compiler.compileScript(stmts);
+        try {
+            program.evaluate(globals);
+        } catch (RuntimeError error) {
+            Simplf.runtimeError(error);
+        }
+    }
+}
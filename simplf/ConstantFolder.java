@@ -0,0 +1,226 @@
+package simplf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Optimization pass run after Desugar that evaluates at compile time the
+ * operations whose operands are literals, with the same Interpreter helpers
+ * the engines use. An operation that would fail is left as it is, so the
+ * error is still raised, at the same token, if and when it runs; an operand
+ * that is not a string, number, boolean or nil is never produced.
+ *
+ * On a whole program, the pass also propagates constants: a variable
+ * declared once in the program and never assigned, with a literal
+ * initializer, is replaced by that literal in the statements that follow its
+ * declaration in the same statement list. Those run only once the
+ * declaration has, and under the hybrid lexical/dynamic lookup any name that
+ * is declared nowhere else can only ever find that value. A REPL line does
+ * not know what later lines will assign, so it is only folded.
+ */
+class ConstantFolder implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Declarations declarations;
+    // Literal values of the constants declared by the statements before.
+    private final Map<Symbol, Literal> constants = new HashMap<>();
+
+    ConstantFolder(boolean wholeProgram) {
+        this.declarations = wholeProgram ? new Declarations() : null;
+    }
+
+    List<Stmt> fold(List<Stmt> program) {
+        if (declarations != null) {
+            declarations.scan(program);
+        }
+        return foldAll(program);
+    }
+
+    private List<Stmt> foldAll(List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        List<Symbol> declared = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            Stmt folded = stmt.accept(this);
+            result.add(folded);
+            if (folded instanceof Var && constant((Var) folded)) {
+                Var var = (Var) folded;
+                constants.put(var.name.symbol,
+                    var.initializer != null ? (Literal) var.initializer : new Literal(null));
+                declared.add(var.name.symbol);
+            }
+        }
+        // Out of the list's scope.
+        for (Symbol name : declared) {
+            constants.remove(name);
+        }
+        return result;
+    }
+
+    private boolean constant(Var var) {
+        return declarations != null && declarations.unique(var.name.symbol)
+            && !declarations.assigned.contains(var.name.symbol)
+            && (var.initializer == null || var.initializer instanceof Literal);
+    }
+
+    // Whether a folded value can stand as a literal; long ropes cannot.
+    private static boolean literal(Object value) {
+        return value == null || value instanceof Double || value instanceof Boolean
+            || value instanceof String;
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        return new Print(stmt.expr.accept(this));
+    }
+
+    @Override
+    public Stmt visitExprStmt(Expression stmt) {
+        return new Expression(stmt.expr.accept(this));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        return new Var(stmt.name, stmt.initializer != null ? stmt.initializer.accept(this) : null);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        return new Block(foldAll(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        return new If(stmt.cond.accept(this), stmt.thenBranch.accept(this),
+            stmt.elseBranch != null ? stmt.elseBranch.accept(this) : null);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        return new While(stmt.cond.accept(this), stmt.body.accept(this));
+    }
+
+    @Override
+    public Stmt visitForStmt(For stmt) {
+        throw new UnsupportedOperationException("For loops are desugared before this pass.");
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        return new Function(stmt.name, stmt.params, foldAll(stmt.body));
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Expr visitBinary(Binary expr) {
+        Expr left = expr.left.accept(this);
+        Expr right = expr.right.accept(this);
+        if (left instanceof Literal && expr.op.type == TokenType.COMMA) {
+            return right;
+        }
+        if (left instanceof Literal && right instanceof Literal) {
+            try {
+                Object value = Interpreter.binary(expr.op, ((Literal) left).val, ((Literal) right).val);
+                if (literal(value)) {
+                    return new Literal(value);
+                }
+            } catch (RuntimeError error) {
+                // Raised when the operation runs.
+            }
+        }
+        return new Binary(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitUnary(Unary expr) {
+        Expr right = expr.right.accept(this);
+        if (right instanceof Literal) {
+            try {
+                return new Literal(Interpreter.unary(expr.op, ((Literal) right).val));
+            } catch (RuntimeError error) {
+                // Raised when the operation runs.
+            }
+        }
+        return new Unary(expr.op, right);
+    }
+
+    @Override
+    public Expr visitLiteral(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGrouping(Grouping expr) {
+        Expr inner = expr.expression.accept(this);
+        return inner instanceof Literal ? inner : new Grouping(inner);
+    }
+
+    @Override
+    public Expr visitVarExpr(Variable expr) {
+        Literal value = constants.get(expr.name.symbol);
+        return value != null ? value : expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        return new Assign(expr.name, expr.value.accept(this));
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = expr.left.accept(this);
+        Expr right = expr.right.accept(this);
+        if (left instanceof Literal) {
+            // The left operand decides which of the two is the value.
+            boolean truthy = Interpreter.isTruthy(((Literal) left).val);
+            return truthy == (expr.op.type == TokenType.OR) ? left : right;
+        }
+        return new Logical(left, expr.op, right);
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Conditional expr) {
+        Expr cond = expr.cond.accept(this);
+        Expr thenBranch = expr.thenBranch.accept(this);
+        Expr elseBranch = expr.elseBranch.accept(this);
+        if (cond instanceof Literal) {
+            return Interpreter.isTruthy(((Literal) cond).val) ? thenBranch : elseBranch;
+        }
+        return new Conditional(cond, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        List<Expr> args = new ArrayList<>();
+        for (Expr arg : expr.args) {
+            args.add(arg.accept(this));
+        }
+        return new Call(expr.callee.accept(this), expr.paren, args);
+    }
+
+    @Override
+    public Expr visitLambda(Lambda expr) {
+        return new Lambda(expr.params, expr.body.accept(this));
+    }
+}
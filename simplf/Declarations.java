@@ -0,0 +1,208 @@
+package simplf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Where each name of a whole program is declared, and which names are
+ * assigned to anywhere in it, for the passes that need to know a name always
+ * means the same thing: statements of the top-level program declare
+ * globals, everything else (parameters too) declares locals.
+ */
+class Declarations implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final Map<Symbol, Integer> topLevel = new HashMap<>();
+    final Map<Symbol, Integer> locals = new HashMap<>();
+    final Set<Symbol> assigned = new HashSet<>();
+    // Nesting below the top-level program.
+    private int depth;
+
+    void scan(List<Stmt> program) {
+        for (Stmt stmt : program) {
+            stmt.accept(this);
+        }
+    }
+
+    // Declared by a single statement of the top-level program and nowhere else.
+    boolean uniqueGlobal(Symbol name) {
+        return topLevel.getOrDefault(name, 0) == 1 && !locals.containsKey(name);
+    }
+
+    // Declared by a single statement or parameter of the program, at any depth.
+    boolean unique(Symbol name) {
+        return topLevel.getOrDefault(name, 0) + locals.getOrDefault(name, 0) == 1;
+    }
+
+    private void declare(Token name) {
+        if (depth == 0) {
+            topLevel.merge(name.symbol, 1, Integer::sum);
+        } else {
+            locals.merge(name.symbol, 1, Integer::sum);
+        }
+    }
+
+    private void nested(Stmt stmt) {
+        depth++;
+        stmt.accept(this);
+        depth--;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Expression stmt) {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        declare(stmt.name);
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        depth++;
+        for (Stmt inner : stmt.statements) {
+            inner.accept(this);
+        }
+        depth--;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        stmt.cond.accept(this);
+        nested(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            nested(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        stmt.cond.accept(this);
+        nested(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        throw new UnsupportedOperationException("For loops are desugared before this pass.");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        declare(stmt.name);
+        depth++;
+        for (Token param : stmt.params) {
+            declare(param);
+        }
+        for (Stmt inner : stmt.body) {
+            inner.accept(this);
+        }
+        depth--;
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        assigned.add(expr.name.symbol);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Conditional expr) {
+        expr.cond.accept(this);
+        expr.thenBranch.accept(this);
+        expr.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        expr.callee.accept(this);
+        for (Expr arg : expr.args) {
+            arg.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        depth++;
+        for (Token param : expr.params) {
+            declare(param);
+        }
+        expr.body.accept(this);
+        depth--;
+        return null;
+    }
+}
@@ -0,0 +1,16 @@
+package simplf;
+
+import java.util.List;
+
+/**
+ * An execution engine for desugared, resolved programs. All engines share the
+ * Resolver's slot layout and the Environment frames, so they behave the same
+ * down to the error messages.
+ */
+interface Engine {
+
+    // Global frame, which the Resolver's global slots index into.
+    Environment globals();
+
+    void interpret(List<Stmt> stmts);
+}
@@ -1,61 +1,176 @@
-package simplf; 
- 
-import java.util.HashMap;
-import java.util.Map;
+package simplf;
+
+import java.util.Arrays;
 
 /**
  * Manages variable bindings and implements lexical scoping by chaining environments.
+ * A frame is a value array laid out by the Resolver for the declaring block or
+ * function; the shared name table is only used by the by-name lookups (late
+ * definitions, the dynamic fallback and diagnostics). Slots of variables that
+ * closures share hold a Cell.
  */
 class Environment {
-    
-    final Map<String, Object> values = new HashMap<>();
+    // Marks a slot whose declaration has not run yet.
+    static final Object UNDEFINED = new Object();
+
+    Symbol[] names;
+    Object[] values;
     final Environment enclosing;
-    
+
     /**
      * Creates the global environment (no enclosing scope).
      */
     Environment() {
-        this.enclosing = null;
+        this(null, Layout.EMPTY);
     }
 
     /**
-     * Creates a new nested environment, chaining to the enclosing scope.
+     * Creates a new nested environment with the given slot layout, chaining to
+     * the enclosing scope.
      */
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, Layout layout) {
+        this(enclosing, layout, 0);
+    }
+
+    /**
+     * Creates a nested environment with room for the given number of
+     * temporaries after the variable slots. Temporaries start out nil and
+     * are invisible to the by-name lookups.
+     */
+    Environment(Environment enclosing, Layout layout, int temps) {
         this.enclosing = enclosing;
+        this.names = layout.names;
+        this.values = new Object[names.length + temps];
+        Arrays.fill(values, 0, names.length, UNDEFINED);
+        for (int slot : layout.cells) {
+            values[slot] = new Cell();
+        }
     }
 
     /**
-     * Defines a new variable in the current scope (Part 1).
+     * Grows the frame to a larger layout; used for the global scope, which
+     * gains slots as more source is resolved.
      */
-    void define(Token varToken, String name, Object value) {
-        values.put(name, value);
+    void extend(Symbol[] globalNames) {
+        int oldLength = values.length;
+        if (globalNames.length > oldLength) {
+            values = Arrays.copyOf(values, globalNames.length);
+            Arrays.fill(values, oldLength, globalNames.length, UNDEFINED);
+        }
+        names = globalNames;
     }
-    
+
+    /**
+     * Defines a new variable in the current scope at its resolved slot (Part 1).
+     */
+    void define(int slot, Object value) {
+        if (values[slot] instanceof Cell) {
+            ((Cell) values[slot]).value = value;
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Enters a nested block that keeps its variables in this frame: its
+     * shared variables get fresh cells, so closures made in one execution of
+     * the block do not see the next one.
+     */
+    void enterBlock(int[] cells) {
+        for (int slot : cells) {
+            values[slot] = new Cell();
+        }
+    }
+
+    /**
+     * Leaves a nested block: its slots go back to undefined.
+     */
+    void exitBlock(int start, int end) {
+        Arrays.fill(values, start, end, UNDEFINED);
+    }
+
+    /**
+     * Walks a fixed number of enclosing links.
+     */
+    Environment ancestor(int depth) {
+        Environment env = this;
+        for (int i = 0; i < depth; i++) {
+            env = env.enclosing;
+        }
+        return env;
+    }
+
+    /**
+     * Value of the name in this frame alone, or UNDEFINED. Inner blocks have
+     * higher slots than the blocks enclosing them, so the search runs from
+     * the top down.
+     */
+    Object lookupLocal(Symbol varName) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i] == varName) {
+                Object value = unbox(values[i]);
+                if (value != UNDEFINED) return value;
+            }
+        }
+        return UNDEFINED;
+    }
+
+    /**
+     * Updates the name in this frame alone; false if it is not defined here.
+     */
+    boolean assignLocal(Symbol varName, Object value) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i] == varName && store(values, i, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Object unbox(Object value) {
+        return value instanceof Cell ? ((Cell) value).value : value;
+    }
+
+    /**
+     * Stores into a slot or the Cell it holds, unless it is not defined yet.
+     */
+    static boolean store(Object[] slots, int slot, Object value) {
+        Object current = slots[slot];
+        if (current instanceof Cell) {
+            Cell cell = (Cell) current;
+            if (cell.value == UNDEFINED) return false;
+            cell.value = value;
+            return true;
+        }
+        if (current == UNDEFINED) return false;
+        slots[slot] = value;
+        return true;
+    }
+
     /**
      * Looks up the value of a variable, walking up the lexical scope chain (Part 1, 3).
      */
     Object get(Token name) {
-        String varName = name.lexeme;
-        if (values.containsKey(varName)) {
-            return values.get(varName);
+        Symbol varName = name.symbol;
+        Object value = lookupLocal(varName);
+        if (value != UNDEFINED) {
+            return value;
         }
-        
+
         // Search in the enclosing environment (lexical scoping)
         if (enclosing != null) {
             return enclosing.get(name);
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + varName + "'.");
+        throw new RuntimeError(name, "Undefined variable '" + varName.name + "'.");
     }
 
     /**
      * Finds and updates an existing variable's value, walking up the scope chain (Part 1, 3).
      */
     void assign(Token name, Object value) {
-        String varName = name.lexeme;
-        if (values.containsKey(varName)) {
-            values.put(varName, value);
+        Symbol varName = name.symbol;
+        if (assignLocal(varName, value)) {
             return;
         }
 
@@ -65,58 +180,74 @@ class Environment {
             return;
         }
 
-        throw new RuntimeError(name, "Assignment to undefined variable '" + varName + "'.");
+        throw new RuntimeError(name, "Assignment to undefined variable '" + varName.name + "'.");
     }
 
     // -------- Added helpers for hybrid lexical+dynamic resolution --------
 
-    private Object getFromChain(Token name) {
-        String varName = name.lexeme;
+    /**
+     * Looks the name up along the chain starting at this frame. Returns
+     * UNDEFINED on a miss instead of throwing, so callers can try another
+     * chain at the cost of a plain walk.
+     */
+    Object lookup(Symbol varName) {
         for (Environment env = this; env != null; env = env.enclosing) {
-            if (env.values.containsKey(varName)) return env.values.get(varName);
+            Object value = env.lookupLocal(varName);
+            if (value != UNDEFINED) return value;
         }
-        throw new RuntimeError(name, "Undefined variable '" + varName + "'.");
+        return UNDEFINED;
     }
 
-    private static Object getFromChain(Token name, Environment start) {
-        String varName = name.lexeme;
+    private static boolean assignInChain(Token name, Object value, Environment start) {
+        Symbol varName = name.symbol;
         for (Environment env = start; env != null; env = env.enclosing) {
-            if (env.values.containsKey(varName)) return env.values.get(varName);
+            if (env.assignLocal(varName, value)) return true;
         }
-        return null; // not found
+        return false;
     }
 
-    private boolean assignInChain(Token name, Object value) {
-        String varName = name.lexeme;
-        for (Environment env = this; env != null; env = env.enclosing) {
-            if (env.values.containsKey(varName)) { env.values.put(varName, value); return true; }
+    /**
+     * Value of the name as the dynamic fallback of a function called from
+     * this environment sees it, or UNDEFINED: the blocks the call is made
+     * from, up to the calling function's frame, or the whole chain from
+     * top-level code. Function frames override it to search only the slots
+     * of their nested blocks.
+     */
+    Object lookupDynamic(Symbol varName) {
+        Object value = lookupLocal(varName);
+        if (value == UNDEFINED && enclosing != null) {
+            return enclosing.lookupDynamic(varName);
         }
-        return false;
+        return value;
     }
 
-    private static boolean assignInChain(Token name, Object value, Environment start) {
-        String varName = name.lexeme;
-        for (Environment env = start; env != null; env = env.enclosing) {
-            if (env.values.containsKey(varName)) { env.values.put(varName, value); return true; }
+    /**
+     * Assignment through the dynamic fallback of a function called from
+     * this environment; false if the name is not visible there.
+     */
+    boolean assignDynamic(Symbol varName, Object value) {
+        if (assignLocal(varName, value)) {
+            return true;
         }
-        return false;
+        return enclosing != null && enclosing.assignDynamic(varName, value);
     }
 
     Object getOrFallback(Token name, Environment fallbackRoot) {
-        try {
-            return getFromChain(name);
-        } catch (RuntimeError e) {
-            if (fallbackRoot != null) {
-                Object v = getFromChain(name, fallbackRoot);
-                if (v != null) return v;
-            }
-            throw e;
+        Object value = lookup(name.symbol);
+        // The fallback takes a nil it finds for a missing variable.
+        if (value == UNDEFINED && fallbackRoot != null
+                && (value = fallbackRoot.lookupDynamic(name.symbol)) == null) {
+            value = UNDEFINED;
+        }
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.symbol.name + "'.");
         }
+        return value;
     }
 
     void assignOrFallback(Token name, Object value, Environment fallbackRoot) {
-        if (assignInChain(name, value)) return;
-        if (fallbackRoot != null && assignInChain(name, value, fallbackRoot)) return;
-        throw new RuntimeError(name, "Assignment to undefined variable '" + name.lexeme + "'.");
+        if (assignInChain(name, value, this)) return;
+        if (fallbackRoot != null && fallbackRoot.assignDynamic(name.symbol, value)) return;
+        throw new RuntimeError(name, "Assignment to undefined variable '" + name.symbol.name + "'.");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package simplf;
+
+/**
+ * A node of the ClosureCompiler's output: the work of one expression or
+ * statement, with its operands already bound. Statements return nil.
+ */
+@FunctionalInterface
+interface Evaluator {
+    Object evaluate(Environment env);
+}
@@ -30,6 +30,7 @@ public abstract class Expr {
     public static class Binary extends Expr {
         final Expr left, right;
         Token op;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
 
         public Binary(Expr left, Token op, Expr right) {
             this.left = left;
@@ -86,6 +87,9 @@ public abstract class Expr {
 
     public static class Variable extends Expr {
         final Token name;
+        // Static address filled in by the Resolver.
+        int depth = Resolver.GLOBAL, slot = -1;
+        boolean upvalue, boxed;
 
         public Variable(Token name) {
             this.name = name;
@@ -100,6 +104,9 @@ public abstract class Expr {
     public static class Assign extends Expr {
         final Token name;
         final Expr value;
+        // Static address filled in by the Resolver.
+        int depth = Resolver.GLOBAL, slot = -1;
+        boolean upvalue, boxed;
 
         public Assign(Token name, Expr value) {
             this.name = name;
@@ -144,6 +151,9 @@ public abstract class Expr {
         final Expr callee;
         Token paren;
         final List<Expr> args;
+        // In tail position of its function, set by the Resolver: the tree
+        // walker runs the call after leaving the caller's frame.
+        boolean tail;
 
         public Call(Expr callee, Token paren, List<Expr> args) {
             this.callee = callee;
@@ -159,6 +169,8 @@ public abstract class Expr {
     public static class Lambda extends Expr {
         List<Token> params;
         Expr body;
+        // Equivalent function declaration, built by the Resolver.
+        Stmt.Function declaration;
 
         public Lambda(List<Token> params, Expr body) {
             this.params = params;
@@ -0,0 +1,293 @@
+package simplf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Optimization pass run after Desugar on a whole program: a call to a small
+ * function is replaced by the function's body, its arguments first stored
+ * in fresh variables of the caller that stand in for the parameters.
+ *
+ * Only what can be shown to behave the same is inlined, which under the
+ * hybrid lexical/dynamic lookup of SimplfFunction.HybridEnv means:
+ * - the function is declared once, by a statement of the top-level program,
+ *   and its name is never assigned or declared anywhere else, so every
+ *   reference to the name finds this function;
+ * - the call is in a later top-level statement (possibly inside a function
+ *   declared there), so the function is defined whenever the call runs;
+ * - the body is one expression of at most MAX_SIZE nodes without calls,
+ *   assignments or lambdas, so nothing can observe the missing frame, and
+ *   it names only its parameters and variables no scope but the global one
+ *   declares, which the call site sees the same way, by slot or by name;
+ * - the call is the whole expression of an expression, print or var
+ *   statement in a statement list (or the value of an assignment that is),
+ *   so hoisting the arguments into variable declarations before the
+ *   statement keeps the order of evaluation.
+ * Other calls stay calls. The declaration itself is kept, since the
+ * function can still be called through other references.
+ */
+class Inliner implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static final int MAX_SIZE = 16;
+
+    private final Declarations declarations = new Declarations();
+    // Functions that may be inlined at the statement being rewritten.
+    private final Map<Symbol, Function> available = new HashMap<>();
+    // Parameters of the body being copied, and the variables standing in for them.
+    private Map<Symbol, Token> substitution;
+    private int freshCount;
+
+    List<Stmt> inline(List<Stmt> program) {
+        declarations.scan(program);
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt stmt : program) {
+            expand(stmt.accept(this), result);
+            if (stmt instanceof Function && inlinable((Function) stmt)) {
+                available.put(((Function) stmt).name.symbol, (Function) stmt);
+            }
+        }
+        return result;
+    }
+
+    private boolean inlinable(Function function) {
+        Symbol name = function.name.symbol;
+        if (!declarations.uniqueGlobal(name) || declarations.assigned.contains(name)) {
+            return false;
+        }
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Expression)) {
+            return false;
+        }
+        Set<Symbol> params = new HashSet<>();
+        for (Token param : function.params) {
+            if (!params.add(param.symbol)) {
+                return false;
+            }
+        }
+        return size(((Expression) function.body.get(0)).expr, params) <= MAX_SIZE;
+    }
+
+    /**
+     * Number of nodes of an expression the body of an inlined function may
+     * be made of, or MAX_SIZE + 1 if it contains anything else.
+     */
+    private int size(Expr expr, Set<Symbol> params) {
+        if (expr instanceof Literal) {
+            return 1;
+        }
+        if (expr instanceof Variable) {
+            Symbol name = ((Variable) expr).name.symbol;
+            return params.contains(name) || !declarations.locals.containsKey(name) ? 1 : MAX_SIZE + 1;
+        }
+        if (expr instanceof Grouping) {
+            return 1 + size(((Grouping) expr).expression, params);
+        }
+        if (expr instanceof Unary) {
+            return 1 + size(((Unary) expr).right, params);
+        }
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            return 1 + size(binary.left, params) + size(binary.right, params);
+        }
+        if (expr instanceof Logical) {
+            Logical logical = (Logical) expr;
+            return 1 + size(logical.left, params) + size(logical.right, params);
+        }
+        if (expr instanceof Conditional) {
+            Conditional conditional = (Conditional) expr;
+            return 1 + size(conditional.cond, params) + size(conditional.thenBranch, params)
+                + size(conditional.elseBranch, params);
+        }
+        return MAX_SIZE + 1;
+    }
+
+    private List<Stmt> rewrite(List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            expand(stmt.accept(this), result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a statement of a statement list, inlining the call it is made of
+     * if there is one to inline.
+     */
+    private void expand(Stmt stmt, List<Stmt> out) {
+        if (stmt instanceof Expression) {
+            Expr expr = ((Expression) stmt).expr;
+            if (expr instanceof Assign) {
+                Assign assign = (Assign) expr;
+                Expr value = inlineCall(assign.value, out);
+                if (value != null) {
+                    out.add(new Expression(new Assign(assign.name, value)));
+                    return;
+                }
+            } else {
+                Expr value = inlineCall(expr, out);
+                if (value != null) {
+                    out.add(new Expression(value));
+                    return;
+                }
+            }
+        } else if (stmt instanceof Print) {
+            Expr value = inlineCall(((Print) stmt).expr, out);
+            if (value != null) {
+                out.add(new Print(value));
+                return;
+            }
+        } else if (stmt instanceof Var && ((Var) stmt).initializer != null) {
+            Expr value = inlineCall(((Var) stmt).initializer, out);
+            if (value != null) {
+                out.add(new Var(((Var) stmt).name, value));
+                return;
+            }
+        }
+        out.add(stmt);
+    }
+
+    /**
+     * If the expression is a call to inline, adds the declarations of the
+     * variables holding its arguments and returns the body to evaluate in
+     * its place; otherwise returns null.
+     */
+    private Expr inlineCall(Expr expr, List<Stmt> out) {
+        if (!(expr instanceof Call) || !(((Call) expr).callee instanceof Variable)) {
+            return null;
+        }
+        Call call = (Call) expr;
+        Function function = available.get(((Variable) call.callee).name.symbol);
+        if (function == null || function.params.size() != call.args.size()) {
+            return null;
+        }
+        substitution = new HashMap<>();
+        for (int i = 0; i < call.args.size(); i++) {
+            Token param = function.params.get(i);
+            Token fresh = new Token(Symbol.intern(param.lexeme + "#" + freshCount++), param.line, param.col);
+            out.add(new Var(fresh, call.args.get(i)));
+            substitution.put(param.symbol, fresh);
+        }
+        Expr body = ((Expression) function.body.get(0)).expr.accept(this);
+        substitution = null;
+        return body;
+    }
+
+    // --- Statements: rebuilt with their statement lists rewritten ---
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExprStmt(Expression stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        return new Block(rewrite(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        return new If(stmt.cond, stmt.thenBranch.accept(this),
+            stmt.elseBranch != null ? stmt.elseBranch.accept(this) : null);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        return new While(stmt.cond, stmt.body.accept(this));
+    }
+
+    @Override
+    public Stmt visitForStmt(For stmt) {
+        // For loops are desugared before this pass.
+        throw new UnsupportedOperationException("For loops are not inlined.");
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        return new Function(stmt.name, stmt.params, rewrite(stmt.body));
+    }
+
+    // --- Expressions: copies of an inlined body, parameters substituted ---
+
+    @Override
+    public Expr visitBinary(Binary expr) {
+        return new Binary(expr.left.accept(this), expr.op, expr.right.accept(this));
+    }
+
+    @Override
+    public Expr visitUnary(Unary expr) {
+        return new Unary(expr.op, expr.right.accept(this));
+    }
+
+    @Override
+    public Expr visitLiteral(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGrouping(Grouping expr) {
+        return new Grouping(expr.expression.accept(this));
+    }
+
+    @Override
+    public Expr visitVarExpr(Variable expr) {
+        Token fresh = substitution.get(expr.name.symbol);
+        return new Variable(fresh != null ? fresh : expr.name);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        throw new UnsupportedOperationException("Assignments are not inlined.");
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        return new Logical(expr.left.accept(this), expr.op, expr.right.accept(this));
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Conditional expr) {
+        return new Conditional(expr.cond.accept(this), expr.thenBranch.accept(this),
+            expr.elseBranch.accept(this));
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        throw new UnsupportedOperationException("Calls are not inlined.");
+    }
+
+    @Override
+    public Expr visitLambda(Lambda expr) {
+        throw new UnsupportedOperationException("Lambdas are not inlined.");
+    }
+}
@@ -1,20 +1,37 @@
 package simplf; 
 
 import java.util.List;
-import java.util.ArrayList;
 
 import simplf.Expr.Lambda;
 import simplf.Stmt.For;
-import simplf.Stmt.Function;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+class Interpreter implements Engine, Expr.Visitor<Object>, Stmt.Visitor<Object> {
     public Environment globals = new Environment();
     public Environment environment = globals;  // public for call-time env management
+    // Where every engine's print statements go; replaceable, e.g. to discard output.
+    static Output output = Output.stdout();
+
+    // Calls after which a function, and back-edges after which a loop, is
+    // compiled to JVM bytecode; 0 keeps the code in the tree walker.
+    static final int CALL_THRESHOLD = 100;
+    static final int LOOP_THRESHOLD = 1000;
+    final int callThreshold, loopThreshold;
 
     Interpreter() {
-        // ... (existing constructor logic)
+        this(CALL_THRESHOLD, LOOP_THRESHOLD);
+    }
+
+    Interpreter(int callThreshold, int loopThreshold) {
+        this.callThreshold = callThreshold;
+        this.loopThreshold = loopThreshold;
+    }
+
+    @Override
+    public Environment globals() {
+        return globals;
     }
 
+    @Override
     public void interpret(List<Stmt> stmts) {
         try {
             for (Stmt stmt : stmts) {
@@ -32,6 +49,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return expr.accept(this);
     }
 
+    /**
+     * Evaluates an expression whose consumer needs a number, without boxing
+     * intermediate results of arithmetic. A value of another type is handed
+     * back through UnexpectedResult.
+     */
+    double evaluateDouble(Expr expr) throws UnexpectedResult {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.node.executeDouble(this, binary);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).op.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            try {
+                return -evaluateDouble(unary.right);
+            } catch (UnexpectedResult e) {
+                return UnexpectedResult.expectDouble(unary(unary.op, e.value));
+            }
+        }
+        return UnexpectedResult.expectDouble(evaluate(expr));
+    }
+
+    /**
+     * Evaluates an expression whose consumer needs a condition; comparisons
+     * of numbers produce no boxed values.
+     */
+    boolean evaluateBoolean(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.node.executeBoolean(this, binary);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return evaluateBoolean(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).op.type == TokenType.BANG) {
+            return !evaluateBoolean(((Expr.Unary) expr).right);
+        }
+        return isTruthy(evaluate(expr));
+    }
+
     // public so SimplfFunction can exec statements
     public Object execute(Stmt stmt) {
         return stmt.accept(this);
@@ -58,8 +117,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitExprStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expr);
-        return null;
+        Object value = evaluate(stmt.expr);
+        // A tail call is passed out to SimplfFunction.call.
+        return stmt.tail ? TailCall.discarding(value) : null;
     }
     
     @Override
@@ -69,28 +129,67 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             value = evaluate(stmt.initializer);
         }
         // Define variable in the current lexical scope.
-        environment.define(stmt.name, stmt.name.lexeme, value);
+        environment.define(stmt.slot, value);
         return null;
     }
 
     @Override
     public Object visitBlockStmt(Stmt.Block stmt) {
-        // Create a new scope for the block, chaining to the current one.
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+        if (stmt.layout != null) {
+            // Outermost block of top-level code: create its frame.
+            executeBlock(stmt.statements, new Environment(environment, stmt.layout));
+            return null;
+        }
+        // Otherwise the block's variables live in the current frame; a block
+        // that declares nothing costs nothing.
+        boolean scoped = stmt.end > stmt.start;
+        if (scoped) {
+            environment.enterBlock(stmt.cells);
+        }
+        Object result = null;
+        for (Stmt statement : stmt.statements) {
+            result = execute(statement);
+        }
+        // A pending tail call still sees the block's variables through its
+        // dynamic fallback; nothing else runs in this frame.
+        if (scoped && result == null) {
+            environment.exitBlock(stmt.start, stmt.end);
+        }
+        return result;
+    }
+
+    /**
+     * Frame slots (or closure captures) a resolved address points into.
+     */
+    private Object[] slotsOf(int depth, boolean upvalue) {
+        if (depth == Resolver.GLOBAL) {
+            return globals.values;
+        }
+        Environment frame = environment.ancestor(depth);
+        return upvalue ? ((SimplfFunction.HybridEnv) frame).captures : frame.values;
     }
 
     @Override
     public Object visitVarExpr(Expr.Variable expr) {
-        // Lookup variable value, automatically walking up the scope chain.
+        // Read the resolved slot; fall back to walking the scope chain by name
+        // only when the declaration there has not run yet.
+        Object value = slotsOf(expr.depth, expr.upvalue)[expr.slot];
+        if (expr.boxed) {
+            value = ((Cell) value).value;
+        }
+        if (value != Environment.UNDEFINED) {
+            return value;
+        }
         return environment.get(expr.name);
     }
     
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        // Find and update the variable's value up the scope chain.
-        environment.assign(expr.name, value);
+        // Update the resolved slot, or find the variable up the scope chain.
+        if (!Environment.store(slotsOf(expr.depth, expr.upvalue), expr.slot, value)) {
+            environment.assign(expr.name, value);
+        }
         // Assignment expressions return the assigned value.
         return value;
     }
@@ -101,22 +200,75 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     
     @Override
     public Object visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.cond))) {
-            execute(stmt.thenBranch);
+        if (evaluateBoolean(stmt.cond)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
     public Object visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.cond))) {
-            execute(stmt.body);
+        Environment previous = environment;
+        if (stmt.layout != null) {
+            // Top-level loop: one frame for the blocks of every iteration.
+            environment = new Environment(environment, stmt.layout);
+        }
+        try {
+            if (stmt.jitCode != null) {
+                stmt.jitCode.run(this, environment, capturesOf(environment));
+                return null;
+            }
+            while (evaluateBoolean(stmt.cond)) {
+                execute(stmt.body);
+                if (stmt.backEdges < loopThreshold && ++stmt.backEdges == loopThreshold
+                        && promote(stmt) != null) {
+                    // On-stack replacement: the loop's variables already live in
+                    // the frame, so the compiled loop picks up right here, at the
+                    // condition, and runs the remaining iterations.
+                    stmt.jitCode.run(this, environment, capturesOf(environment));
+                    return null;
+                }
+            }
+        } finally {
+            environment = previous;
         }
         return null;
     }
 
+    private static Object[] capturesOf(Environment frame) {
+        return frame instanceof SimplfFunction.HybridEnv ? ((SimplfFunction.HybridEnv) frame).captures : null;
+    }
+
+    // --- Tiers ---
+
+    /**
+     * Compiles a function that reached the call threshold.
+     */
+    JitCode promote(Stmt.Function declaration) {
+        declaration.jitCode = JitCompiler.compile(declaration);
+        trace("fun " + declaration.name.lexeme, declaration.calls + " calls", declaration.jitCode);
+        return declaration.jitCode;
+    }
+
+    /**
+     * Compiles a loop that reached the back-edge threshold.
+     */
+    private JitCode promote(Stmt.While loop) {
+        loop.jitCode = JitCompiler.compile(loop);
+        trace(loop.layout != null ? "top-level loop" : "loop", loop.backEdges + " back-edges", loop.jitCode);
+        return loop.jitCode;
+    }
+
+    private static void trace(String code, String count, JitCode compiled) {
+        if (Simplf.traceTiers) {
+            output.flush();
+            System.err.println("[tiers] " + code + " after " + count + ": "
+                + (compiled != null ? "compiled" : "not compilable, stays interpreted"));
+        }
+    }
+
     @Override
     public Object visitForStmt(For stmt) {
         // For loops are desugared and should not be visited here.
@@ -129,62 +281,82 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitFunctionStmt(Stmt.Function stmt) {
-        // Capture the correct closure: if currently inside a HybridEnv (function call),
-        // capture its primary lexical frame so nested functions close over locals (e.g., 'c').
-        Environment closureEnv = this.environment;
-        try {
-            if (closureEnv.getClass().getName().equals("simplf.SimplfFunction$HybridEnv")) {
-                java.lang.reflect.Field f = closureEnv.getClass().getDeclaredField("primary");
-                f.setAccessible(true);
-                Object primary = f.get(closureEnv);
-                if (primary instanceof Environment) {
-                    closureEnv = (Environment) primary;
-                }
-            }
-        } catch (Exception ignored) {
-            // If reflection fails, fall back to current environment
-        }
-
-        SimplfFunction function = new SimplfFunction(stmt, closureEnv);
-        environment.define(stmt.name, stmt.name.lexeme, function);
+        // Captures are taken from the current frame, the function's definition site.
+        SimplfFunction function = new SimplfFunction(stmt, environment);
+        environment.define(stmt.slot, function);
         return null;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
-        
+
         if (!(callee instanceof SimplfCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions.");
         }
-        
         SimplfCallable function = (SimplfCallable) callee;
-        
-        // Evaluate arguments before the call (eager evaluation).
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.args) {
-            arguments.add(evaluate(argument));
+
+        // Evaluate arguments before the call (eager evaluation). The common
+        // arities pass them to an entry point of their own, without an
+        // array; a tail call keeps its arguments in one.
+        List<Expr> args = expr.args;
+        switch (expr.tail ? -1 : args.size()) {
+            case 0:
+                checkArity(expr, function);
+                return function.call(this);
+            case 1: {
+                Object a = evaluate(args.get(0));
+                checkArity(expr, function);
+                return function.call(this, a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                checkArity(expr, function);
+                return function.call(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                checkArity(expr, function);
+                return function.call(this, a, b, c);
+            }
+            case 4: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                Object d = evaluate(args.get(3));
+                checkArity(expr, function);
+                return function.call(this, a, b, c, d);
+            }
+            default: {
+                Object[] values = new Object[args.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(args.get(i));
+                }
+                checkArity(expr, function);
+                // A tail call is left to the caller's trampoline.
+                if (expr.tail && function instanceof SimplfFunction) {
+                    return new TailCall((SimplfFunction) function, values, environment);
+                }
+                return function.call(this, values);
+            }
         }
+    }
 
-        // Check arity
-        if (arguments.size() != function.arity()) {
-           throw new RuntimeError(expr.paren, "Expected " + function.arity() + 
-                                   " arguments but got " + arguments.size() + ".");
+    // Checks the number of arguments, once they have been evaluated.
+    private static void checkArity(Expr.Call expr, SimplfCallable function) {
+        if (expr.args.size() != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() +
+                                   " arguments but got " + expr.args.size() + ".");
         }
-        
-        // Perform the call.
-        return function.call(this, arguments);
     }
     
     @Override
     public Object visitLambda(Lambda expr) {
-        // Lambda creates an anonymous function. We wrap its body in a pseudo-Function Stmt.
-        Function anonymousDeclaration = new Stmt.Function(
-            new Token(TokenType.FUN, "lambda", null, 0, 0), 
-            expr.params, 
-            List.of(new Stmt.Expression(expr.body)) 
-        );
-        return new SimplfFunction(anonymousDeclaration, environment);
+        // Lambda creates an anonymous function from the declaration the Resolver built.
+        return new SimplfFunction(expr.declaration, environment);
     }
     
     // --- Existing visitors and helpers (no change required) ---
@@ -192,7 +364,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     @Override
     public Object visitPrintStmt(Stmt.Print stmt) {
         Object val = evaluate(stmt.expr);
-        System.out.println(stringify(val));
+        output.println(val);
         return null;
     }
 
@@ -211,41 +383,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitBinary(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        return expr.node.evaluate(this, expr);
+    }
 
-        switch (expr.op.type) {
+    /**
+     * Unspecialized binary operation, for operand types the node's
+     * specialization does not cover. Shared with the other engines.
+     */
+    static Object binary(Token op, Object left, Object right) {
+        switch (op.type) {
             case PLUS:
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (Rope.isString(left) || Rope.isString(right)) {
+                    return Rope.concat(left, right);
                 }
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
-                throw new RuntimeError(expr.op, "Addition operation not supported for operands.");
+                throw new RuntimeError(op, "Addition operation not supported for operands.");
             case MINUS:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (double) left - (double) right;
             case STAR:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (double) left * (double) right;
             case SLASH:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 if (right instanceof Double && (double) right == 0.0) {
-                    throw new RuntimeError(expr.op, "Cannot divide by zero.");
+                    throw new RuntimeError(op, "Cannot divide by zero.");
                 }
                 return (double) left / (double) right;
             case GREATER:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (boolean)((double) left > (double) right);
             case GREATER_EQUAL:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (boolean)((double) left >= (double) right);
             case LESS:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (boolean)((double) left < (double) right);
             case LESS_EQUAL:
-                checkNumbers(expr.op, left, right);
+                checkNumbers(op, left, right);
                 return (boolean)((double) left <= (double) right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
@@ -261,10 +438,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitUnary(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-        switch (expr.op.type) {
+        if (expr.op.type == TokenType.MINUS) {
+            try {
+                return -evaluateDouble(expr.right);
+            } catch (UnexpectedResult e) {
+                return unary(expr.op, e.value);
+            }
+        }
+        if (expr.op.type == TokenType.BANG) {
+            return !evaluateBoolean(expr.right);
+        }
+        return unary(expr.op, evaluate(expr.right));
+    }
+
+    static Object unary(Token op, Object right) {
+        switch (op.type) {
             case MINUS:
-                checkNumber(expr.op, right);
+                checkNumber(op, right);
                 return -(double) right;
             case BANG:
                 return !isTruthy(right);
@@ -286,14 +476,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     
     @Override
     public Object visitConditionalExpr(Expr.Conditional expr) {
-        if (isTruthy(evaluate(expr.cond))) {
+        if (evaluateBoolean(expr.cond)) {
             return evaluate(expr.thenBranch);
         } else {
             return evaluate(expr.elseBranch);
         }
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -303,33 +493,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null)
             return b == null;
+        // A rope equals a string with the same text.
+        if (a instanceof Rope || b instanceof Rope)
+            return Rope.isString(a) && Rope.isString(b) && a.toString().equals(b.toString());
         return a.equals(b);
     }
 
-    private void checkNumber(Token op, Object object) {
+    private static void checkNumber(Token op, Object object) {
         if (object instanceof Double)
             return;
         throw new RuntimeError(op, "Operand must be a number");
     }
 
-    private void checkNumbers(Token op, Object a, Object b) {
+    private static void checkNumbers(Token op, Object a, Object b) {
         if (a instanceof Double && b instanceof Double)
             return;
         throw new RuntimeError(op, "Operand must be numbers");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
         if (object instanceof Double) {
-            String num = object.toString();
-            if (num.endsWith(".0")) {
-                num = num.substring(0, num.length() - 2);
-            }
-            return num;
+            return Numbers.toString((Double) object);
         }
         return object.toString();
     }
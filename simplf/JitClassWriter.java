@@ -0,0 +1,360 @@
+package simplf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the JIT: a constant pool,
+ * fields, and methods with straight-line code and 16-bit branches. Classes
+ * are written as version 49, which the JVM verifies by type inference, so
+ * no StackMapTable frames have to be computed.
+ */
+final class JitClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int ALOAD = 25;
+    static final int AALOAD = 50;
+    static final int ASTORE = 58;
+    static final int AASTORE = 83;
+    static final int POP = 87;
+    static final int DUP = 89;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int GOTO = 167;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETFIELD = 180;
+    static final int PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int INVOKEINTERFACE = 185;
+    static final int ANEWARRAY = 189;
+    static final int CHECKCAST = 192;
+
+    /**
+     * Thrown when a method does not fit the writer's limits.
+     */
+    static class TooLarge extends Exception {
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass, superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    JitClassWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    // --- Constant pool ---
+
+    private int entry(String key, int tag, byte[] payload) {
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            poolOut.write(payload);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        poolIndices.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            out[2 * i] = (byte) (values[i] >> 8);
+            out[2 * i + 1] = (byte) values[i];
+        }
+        return out;
+    }
+
+    int utf8(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(out).writeUTF(value);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return entry("U" + value, 1, out.toByteArray());
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 3, new byte[] {
+            (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value });
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name);
+        return entry("C" + name, 7, bytes(nameIndex));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        return entry("N" + name + " " + descriptor, 12, bytes(nameIndex, typeIndex));
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + descriptor, tag, bytes(ownerIndex, typeIndex));
+    }
+
+    // --- Members ---
+
+    void field(int access, String name, String descriptor) {
+        fields.add(bytes(access, utf8(name), utf8(descriptor), 0));
+    }
+
+    Code method(int access, String name, String descriptor, int maxLocals) {
+        return new Code(access, name, descriptor, maxLocals);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Code of one method. Every instruction records its effect on the operand
+     * stack depth, from which the method's max_stack is taken.
+     */
+    final class Code {
+        private final int access, name, descriptor, maxLocals;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        // Forward branches as {position, offset}, patched in when the method ends.
+        private final List<int[]> patches = new ArrayList<>();
+        private int depth, maxDepth;
+
+        private Code(int access, String name, String descriptor, int maxLocals) {
+            this.access = access;
+            this.name = utf8(name);
+            this.descriptor = utf8(descriptor);
+            this.maxLocals = maxLocals;
+        }
+
+        int position() {
+            return code.size();
+        }
+
+        int depth() {
+            return depth;
+        }
+
+        void depth(int depth) {
+            this.depth = depth;
+        }
+
+        private void adjust(int effect) {
+            depth += effect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void u1(int value) {
+            code.write(value);
+        }
+
+        private void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        void op(int opcode, int effect) {
+            u1(opcode);
+            adjust(effect);
+        }
+
+        void load(int local) {
+            u1(ALOAD);
+            u1(local);
+            adjust(1);
+        }
+
+        void store(int local) {
+            u1(ASTORE);
+            u1(local);
+            adjust(-1);
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+            adjust(1);
+        }
+
+        // checkcast, anewarray
+        void type(int opcode, String className) {
+            u1(opcode);
+            u2(classRef(className));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(memberRef(9, owner, name, descriptor));
+            adjust(opcode == GETFIELD ? 0 : -2);
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int args = argumentSlots(descriptor);
+            if (opcode == INVOKEINTERFACE) {
+                u1(opcode);
+                u2(memberRef(11, owner, name, descriptor));
+                u1(args + 1);
+                u1(0);
+            } else {
+                u1(opcode);
+                u2(memberRef(10, owner, name, descriptor));
+            }
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            int result = descriptor.endsWith(")V") ? 0 : 1;
+            adjust(result - args - receiver);
+        }
+
+        /**
+         * Emits a forward branch and returns its position for patch().
+         */
+        int branch(int opcode, int effect) {
+            int at = position();
+            u1(opcode);
+            u2(0);
+            adjust(effect);
+            return at;
+        }
+
+        /**
+         * Points a forward branch at the current position.
+         */
+        void patch(int at) {
+            patches.add(new int[] {at, position() - at});
+        }
+
+        void jump(int opcode, int target, int effect) {
+            int at = position();
+            u1(opcode);
+            u2(target - at);
+            adjust(effect);
+        }
+
+        /**
+         * Adds the finished method to the class.
+         */
+        void end() throws TooLarge {
+            byte[] body = code.toByteArray();
+            for (int[] patch : patches) {
+                int offset = patch[1];
+                if (offset > Short.MAX_VALUE) {
+                    throw new TooLarge("branch offset " + offset);
+                }
+                body[patch[0] + 1] = (byte) (offset >> 8);
+                body[patch[0] + 2] = (byte) offset;
+            }
+            if (body.length > Short.MAX_VALUE) {
+                throw new TooLarge("method of " + body.length + " bytes");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(access);
+                out.writeShort(name);
+                out.writeShort(descriptor);
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + body.length);
+                out.writeShort(maxDepth);
+                out.writeShort(maxLocals);
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            methods.add(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Number of argument slots in a method descriptor that only uses
+     * references, ints and booleans.
+     */
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            slots++;
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,10 @@
+package simplf;
+
+/**
+ * A function body compiled to JVM bytecode by the JitCompiler. It runs in
+ * the call frame SimplfFunction.call sets up, exactly like the tree walker
+ * would, and returns the value of the body.
+ */
+interface JitCode {
+    Object run(Interpreter interpreter, Environment frame, Object[] captures);
+}
@@ -0,0 +1,490 @@
+package simplf;
+
+import static simplf.JitClassWriter.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Compiles the body of a hot function into a JVM class implementing JitCode,
+ * so the JVM's own compilers see one method per function instead of the tree
+ * walker's visitor dispatch. Each node becomes a call to the JitRuntime
+ * operation the tree walker would perform, with If, While and the logical
+ * operators as real branches. The class is defined as a hidden class, which
+ * is unloaded once its JitCode (held by the declaration) is unreachable.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // The JVM does not compile methods larger than this; interpreting the
+    // generated bytecode would be slower than the tree walker.
+    private static final int MAX_CODE = 8000;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "simplf/JitRuntime";
+    private static final String ENVIRONMENT = "simplf/Environment";
+    private static final String O = "Ljava/lang/Object;";
+    private static final String ENV = "Lsimplf/Environment;";
+    private static final String TOKEN = "Lsimplf/Token;";
+
+    // Locals of the generated run method.
+    private static final int INTERPRETER = 1, FRAME = 2, CAPTURES = 3, CONSTANTS = 4, GLOBALS = 5;
+
+    /**
+     * Thrown for code the compiler does not handle; the function then stays
+     * with the tree walker.
+     */
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final String className;
+    private final JitClassWriter writer;
+    private final JitClassWriter.Code code;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    private JitCompiler(String className) {
+        this.className = className.replaceAll("[^\\w/$]", "_");
+        writer = new JitClassWriter(this.className, OBJECT, "simplf/JitCode");
+        code = writer.method(ACC_PUBLIC, "run",
+            "(Lsimplf/Interpreter;" + ENV + "[" + O + ")" + O, GLOBALS + 1);
+    }
+
+    /**
+     * Compiles a function body, or returns null if it cannot be compiled.
+     */
+    static JitCode compile(Function function) {
+        JitCompiler compiler = new JitCompiler("simplf/JitCode$" + function.name.lexeme);
+        try {
+            compiler.prologue();
+            compiler.body(function.body);
+            return compiler.define();
+        } catch (Unsupported | TooLarge | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a loop to run in the frame it is entered with (for a top-level
+     * loop, the frame the interpreter created for it), or returns null if it
+     * cannot be compiled. The compiled loop returns nil.
+     */
+    static JitCode compile(While loop) {
+        JitCompiler compiler = new JitCompiler("simplf/JitCode$while");
+        try {
+            compiler.prologue();
+            compiler.loop(loop);
+            compiler.code.op(ACONST_NULL, 1);
+            compiler.code.op(ARETURN, -1);
+            return compiler.define();
+        } catch (Unsupported | TooLarge | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // The constructor, and the start of run: loads the constants and globals.
+    private void prologue() throws TooLarge {
+        writer.field(ACC_PRIVATE | ACC_FINAL, "constants", "[" + O);
+
+        JitClassWriter.Code init = writer.method(ACC_PUBLIC, "<init>", "([" + O + ")V", 2);
+        init.load(0);
+        init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.load(0);
+        init.load(1);
+        init.field(PUTFIELD, className, "constants", "[" + O);
+        init.op(RETURN, 0);
+        init.end();
+
+        code.load(0);
+        code.field(GETFIELD, className, "constants", "[" + O);
+        code.store(CONSTANTS);
+        code.load(INTERPRETER);
+        code.field(GETFIELD, "simplf/Interpreter", "globals", ENV);
+        code.store(GLOBALS);
+    }
+
+    // A body returns the value of its last statement if that is an
+    // expression statement, and nil otherwise.
+    private void body(List<Stmt> body) {
+        for (int i = 0; i < body.size(); i++) {
+            Stmt stmt = body.get(i);
+            if (i == body.size() - 1 && stmt instanceof Expression) {
+                ((Expression) stmt).expr.accept(this);
+                code.op(ARETURN, -1);
+                return;
+            }
+            stmt.accept(this);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+    }
+
+    /**
+     * Loads the finished class as a hidden class and instantiates it.
+     */
+    private JitCode define() throws TooLarge, ReflectiveOperationException {
+        if (code.position() > MAX_CODE) {
+            throw new TooLarge("method of " + code.position() + " bytes");
+        }
+        code.end();
+        byte[] bytes = writer.toByteArray();
+        Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+        return (JitCode) type.getConstructor(Object[].class).newInstance((Object) constants.toArray());
+    }
+
+    // --- Emitting ---
+
+    // Pushes a constant, cast to the given class unless it is an Object.
+    private void constant(Object value, String type) {
+        if (value == null) {
+            code.op(ACONST_NULL, 1);
+            return;
+        }
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.load(CONSTANTS);
+        code.push(index);
+        code.op(AALOAD, -1);
+        if (!type.equals(OBJECT)) {
+            code.type(CHECKCAST, type);
+        }
+    }
+
+    private void token(Token token) {
+        constant(token, "simplf/Token");
+    }
+
+    private void runtime(String name, String descriptor) {
+        code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    private void truthy() {
+        runtime("truthy", "(" + O + ")Z");
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expr.accept(this);
+        runtime("print", "(" + O + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Expression stmt) {
+        stmt.expr.accept(this);
+        if (stmt.tail) {
+            // Nothing else runs in the function; a tail call goes to the caller.
+            runtime("discarding", "(" + O + ")" + O);
+            code.op(ARETURN, -1);
+            return null;
+        }
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        code.load(FRAME);
+        code.push(stmt.slot);
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "define", "(I" + O + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        if (stmt.layout != null) {
+            throw new Unsupported("top-level block");
+        }
+        boolean scoped = stmt.end > stmt.start;
+        if (scoped && stmt.cells.length > 0) {
+            code.load(FRAME);
+            constant(stmt.cells, "[I");
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "enterBlock", "([I)V");
+        }
+        for (Stmt inner : stmt.statements) {
+            inner.accept(this);
+        }
+        if (scoped) {
+            code.load(FRAME);
+            code.push(stmt.start);
+            code.push(stmt.end);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "exitBlock", "(II)V");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        stmt.cond.accept(this);
+        truthy();
+        int elseJump = code.branch(IFEQ, -1);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            code.patch(elseJump);
+            return null;
+        }
+        int endJump = code.branch(GOTO, 0);
+        code.patch(elseJump);
+        stmt.elseBranch.accept(this);
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        if (stmt.layout != null) {
+            throw new Unsupported("top-level loop");
+        }
+        loop(stmt);
+        return null;
+    }
+
+    private void loop(While stmt) {
+        int loop = code.position();
+        stmt.cond.accept(this);
+        truthy();
+        int exitJump = code.branch(IFEQ, -1);
+        stmt.body.accept(this);
+        code.jump(GOTO, loop, 0);
+        code.patch(exitJump);
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        // For loops are desugared before compilation.
+        throw new Unsupported("for loop");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        code.load(FRAME);
+        code.push(stmt.slot);
+        closure(stmt);
+        code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "define", "(I" + O + ")V");
+        return null;
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        expr.left.accept(this);
+        if (expr.op.type == TokenType.COMMA) {
+            code.op(POP, -1);
+            expr.right.accept(this);
+            return null;
+        }
+        expr.right.accept(this);
+        String name;
+        switch (expr.op.type) {
+            case PLUS: name = "add"; break;
+            case MINUS: name = "subtract"; break;
+            case STAR: name = "multiply"; break;
+            case SLASH: name = "divide"; break;
+            case GREATER: name = "greater"; break;
+            case GREATER_EQUAL: name = "greaterEqual"; break;
+            case LESS: name = "less"; break;
+            case LESS_EQUAL: name = "lessEqual"; break;
+            case EQUAL_EQUAL:
+                runtime("equal", "(" + O + O + ")" + O);
+                return null;
+            case BANG_EQUAL:
+                runtime("notEqual", "(" + O + O + ")" + O);
+                return null;
+            default:
+                // Operators the interpreter does not evaluate yield nil.
+                code.op(POP, -1);
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+                return null;
+        }
+        token(expr.op);
+        runtime(name, "(" + O + O + TOKEN + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        expr.right.accept(this);
+        switch (expr.op.type) {
+            case MINUS:
+                token(expr.op);
+                runtime("negate", "(" + O + TOKEN + ")" + O);
+                break;
+            case BANG:
+                runtime("not", "(" + O + ")" + O);
+                break;
+            default:
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        constant(expr.val, OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Variable expr) {
+        if (expr.depth == Resolver.GLOBAL) {
+            code.load(GLOBALS);
+            code.push(expr.slot);
+            code.load(FRAME);
+            token(expr.name);
+            runtime("global", "(" + ENV + "I" + ENV + TOKEN + ")" + O);
+        } else if (expr.upvalue) {
+            code.load(CAPTURES);
+            code.push(expr.slot);
+            code.load(FRAME);
+            token(expr.name);
+            runtime(expr.boxed ? "upvalueCell" : "upvalue", "([" + O + "I" + ENV + TOKEN + ")" + O);
+        } else {
+            code.load(FRAME);
+            code.push(expr.slot);
+            token(expr.name);
+            runtime(expr.boxed ? "localCell" : "local", "(" + ENV + "I" + TOKEN + ")" + O);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        expr.value.accept(this);
+        if (expr.depth == Resolver.GLOBAL) {
+            code.load(GLOBALS);
+            code.push(expr.slot);
+            code.load(FRAME);
+            token(expr.name);
+            runtime("setGlobal", "(" + O + ENV + "I" + ENV + TOKEN + ")" + O);
+        } else if (expr.upvalue) {
+            code.load(CAPTURES);
+            code.push(expr.slot);
+            code.load(FRAME);
+            token(expr.name);
+            runtime("setUpvalue", "(" + O + "[" + O + "I" + ENV + TOKEN + ")" + O);
+        } else {
+            code.load(FRAME);
+            code.push(expr.slot);
+            token(expr.name);
+            runtime("setLocal", "(" + O + ENV + "I" + TOKEN + ")" + O);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        expr.left.accept(this);
+        code.op(DUP, 1);
+        truthy();
+        // The left operand is the result when it decides the outcome.
+        int endJump = code.branch(expr.op.type == TokenType.OR ? IFNE : IFEQ, -1);
+        code.op(POP, -1);
+        expr.right.accept(this);
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Conditional expr) {
+        expr.cond.accept(this);
+        truthy();
+        int elseJump = code.branch(IFEQ, -1);
+        expr.thenBranch.accept(this);
+        int endJump = code.branch(GOTO, 0);
+        // Only one branch leaves its value on the stack.
+        code.depth(code.depth() - 1);
+        code.patch(elseJump);
+        expr.elseBranch.accept(this);
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        expr.callee.accept(this);
+        token(expr.paren);
+        runtime("callable", "(" + O + TOKEN + ")Lsimplf/SimplfCallable;");
+        int argc = expr.args.size();
+        if (!expr.tail && argc <= 4) {
+            // An entry point of the callee's own for the arity: no array.
+            StringBuilder descriptor = new StringBuilder("(Lsimplf/SimplfCallable;");
+            for (Expr arg : expr.args) {
+                arg.accept(this);
+                descriptor.append(O);
+            }
+            code.load(INTERPRETER);
+            token(expr.paren);
+            runtime("call", descriptor + "Lsimplf/Interpreter;" + TOKEN + ")" + O);
+            return null;
+        }
+        code.push(argc);
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < argc; i++) {
+            code.op(DUP, 1);
+            code.push(i);
+            expr.args.get(i).accept(this);
+            code.op(AASTORE, -3);
+        }
+        code.load(INTERPRETER);
+        token(expr.paren);
+        runtime(expr.tail ? "tailCall" : "call",
+            "(Lsimplf/SimplfCallable;[" + O + "Lsimplf/Interpreter;" + TOKEN + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        closure(expr.declaration);
+        return null;
+    }
+
+    private void closure(Function declaration) {
+        constant(declaration, "simplf/Stmt$Function");
+        code.load(FRAME);
+        runtime("closure", "(Lsimplf/Stmt$Function;" + ENV + ")" + O);
+    }
+}
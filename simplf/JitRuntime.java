@@ -0,0 +1,210 @@
+package simplf;
+
+/**
+ * Operations called from JIT-compiled code. Each one is what the tree walker
+ * does for the corresponding node, kept small so that the JVM inlines it into
+ * the compiled method.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+
+    }
+
+    // --- Variables ---
+
+    static Object local(Environment frame, int slot, Token name) {
+        Object value = frame.values[slot];
+        return value != Environment.UNDEFINED ? value : frame.get(name);
+    }
+
+    static Object localCell(Environment frame, int slot, Token name) {
+        Object value = ((Cell) frame.values[slot]).value;
+        return value != Environment.UNDEFINED ? value : frame.get(name);
+    }
+
+    static Object upvalue(Object[] captures, int index, Environment frame, Token name) {
+        Object value = captures[index];
+        return value != Environment.UNDEFINED ? value : frame.get(name);
+    }
+
+    static Object upvalueCell(Object[] captures, int index, Environment frame, Token name) {
+        Object value = ((Cell) captures[index]).value;
+        return value != Environment.UNDEFINED ? value : frame.get(name);
+    }
+
+    static Object global(Environment globals, int slot, Environment frame, Token name) {
+        Object value = globals.values[slot];
+        return value != Environment.UNDEFINED ? value : frame.get(name);
+    }
+
+    static Object setLocal(Object value, Environment frame, int slot, Token name) {
+        if (!Environment.store(frame.values, slot, value)) {
+            frame.assign(name, value);
+        }
+        return value;
+    }
+
+    static Object setUpvalue(Object value, Object[] captures, int index, Environment frame, Token name) {
+        if (!Environment.store(captures, index, value)) {
+            frame.assign(name, value);
+        }
+        return value;
+    }
+
+    static Object setGlobal(Object value, Environment globals, int slot, Environment frame, Token name) {
+        if (!Environment.store(globals.values, slot, value)) {
+            frame.assign(name, value);
+        }
+        return value;
+    }
+
+    // --- Operators ---
+
+    static Object add(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left + (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left - (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left * (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object divide(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double && (Double) right != 0.0) {
+            return (Double) left / (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object greater(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left > (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left >= (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object less(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left < (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left <= (Double) right;
+        }
+        return Interpreter.binary(op, left, right);
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object right, Token op) {
+        return Interpreter.unary(op, right);
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.isTruthy(right);
+    }
+
+    static boolean truthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    // --- Functions ---
+
+    // The callee is checked before any argument is evaluated.
+    static SimplfCallable callable(Object callee, Token paren) {
+        if (!(callee instanceof SimplfCallable)) {
+            throw new RuntimeError(paren, "Can only call functions.");
+        }
+        return (SimplfCallable) callee;
+    }
+
+    private static void checkArity(SimplfCallable function, int argc, Token paren) {
+        if (argc != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() +
+                                   " arguments but got " + argc + ".");
+        }
+    }
+
+    // The common arities use the callee's entry point of their own.
+
+    static Object call(SimplfCallable function, Interpreter interpreter, Token paren) {
+        checkArity(function, 0, paren);
+        return function.call(interpreter);
+    }
+
+    static Object call(SimplfCallable function, Object a, Interpreter interpreter, Token paren) {
+        checkArity(function, 1, paren);
+        return function.call(interpreter, a);
+    }
+
+    static Object call(SimplfCallable function, Object a, Object b, Interpreter interpreter, Token paren) {
+        checkArity(function, 2, paren);
+        return function.call(interpreter, a, b);
+    }
+
+    static Object call(SimplfCallable function, Object a, Object b, Object c,
+                       Interpreter interpreter, Token paren) {
+        checkArity(function, 3, paren);
+        return function.call(interpreter, a, b, c);
+    }
+
+    static Object call(SimplfCallable function, Object a, Object b, Object c, Object d,
+                       Interpreter interpreter, Token paren) {
+        checkArity(function, 4, paren);
+        return function.call(interpreter, a, b, c, d);
+    }
+
+    static Object call(SimplfCallable function, Object[] args, Interpreter interpreter, Token paren) {
+        checkArity(function, args.length, paren);
+        return function.call(interpreter, args);
+    }
+
+    // A call in tail position is left to SimplfFunction.call to run.
+    static Object tailCall(SimplfCallable function, Object[] args, Interpreter interpreter, Token paren) {
+        checkArity(function, args.length, paren);
+        if (function instanceof SimplfFunction) {
+            return new TailCall((SimplfFunction) function, args, interpreter.environment);
+        }
+        return function.call(interpreter, args);
+    }
+
+    static Object discarding(Object value) {
+        return TailCall.discarding(value);
+    }
+
+    static Object closure(Stmt.Function declaration, Environment frame) {
+        return new SimplfFunction(declaration, frame);
+    }
+
+    static void print(Object value) {
+        Interpreter.output.println(value);
+    }
+}
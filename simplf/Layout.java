@@ -0,0 +1,21 @@
+package simplf;
+
+/**
+ * Slot layout of one block, function or lambda frame, built by the Resolver:
+ * the declared names in slot order, the slots that hold a Cell, and where
+ * the slots of the nested blocks sharing the frame start.
+ */
+class Layout {
+    static final Layout EMPTY = new Layout(new Symbol[0], new int[0], 0);
+
+    final Symbol[] names;
+    final int[] cells;
+    // Slots below are the frame's own declarations (and parameters).
+    final int blocks;
+
+    Layout(Symbol[] names, int[] cells, int blocks) {
+        this.names = names;
+        this.cells = cells;
+        this.blocks = blocks;
+    }
+}
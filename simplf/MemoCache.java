@@ -0,0 +1,99 @@
+package simplf;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of calls to pure functions (see Purity), keyed by the function's
+ * declaration and the argument values, for the engines to answer a repeated
+ * call without running it. Holds at most a fixed number of results, dropping
+ * the least recently used one to make room; all access is synchronized, so
+ * one cache can serve several interpreters.
+ */
+final class MemoCache {
+    static final int CAPACITY = 1 << 16;
+    // What get returns for a call the cache holds no result of; nil is a result.
+    static final Object MISSING = new Object();
+
+    private final int capacity;
+    private final Map<Key, Object> results;
+    private long hits, misses, evictions;
+
+    MemoCache(int capacity) {
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > MemoCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized Object get(Stmt.Function function, Object[] args) {
+        Object result = results.getOrDefault(new Key(function, args), MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    synchronized void put(Stmt.Function function, Object[] args, Object result) {
+        results.put(new Key(function, args), result);
+    }
+
+    synchronized String stats() {
+        return hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    /**
+     * A call: which function, with what arguments. Values compare the way
+     * the argument arrays' elements do, so numbers by value (0 and -0 apart)
+     * and strings by their characters; a Rope argument is held flattened to
+     * its String, since a Rope only equals other ropes.
+     */
+    private static final class Key {
+        final Stmt.Function function;
+        final Object[] args;
+        final int hash;
+
+        Key(Stmt.Function function, Object[] args) {
+            this.function = function;
+            this.args = flatten(args);
+            this.hash = 31 * System.identityHashCode(function) + Arrays.hashCode(this.args);
+        }
+
+        private static Object[] flatten(Object[] args) {
+            Object[] flat = args;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof Rope) {
+                    if (flat == args) {
+                        flat = args.clone();
+                    }
+                    flat[i] = args[i].toString();
+                }
+            }
+            return flat;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return key.function == function && key.hash == hash && Arrays.equals(key.args, args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
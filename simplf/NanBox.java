@@ -0,0 +1,81 @@
+package simplf;
+
+/**
+ * NaN-boxed encoding of SimPL-F values in a long. A number is its IEEE bits
+ * (with NaN canonicalized); nil and the booleans are quiet NaNs with a tag;
+ * strings and functions are the REF pattern, the object itself being kept in
+ * a side array at the same index as the long. Two encoded non-references are
+ * equal exactly when Interpreter.isEqual says their values are: Double.equals
+ * also compares canonical bits, so NaN equals NaN and 0 differs from -0.
+ */
+final class NanBox {
+    private static final long QNAN = 0x7FFC_0000_0000_0000L;
+    private static final long SIGN = 0x8000_0000_0000_0000L;
+
+    static final long NIL = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE = QNAN | 3;
+    static final long REF = SIGN | QNAN;
+
+    private NanBox() {
+
+    }
+
+    static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    static long number(double value) {
+        // doubleToLongBits folds every NaN into one that is not a tag.
+        return Double.doubleToLongBits(value);
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static boolean isTruthy(long value) {
+        return value != NIL && value != FALSE;
+    }
+
+    /**
+     * Encodes a value; a reference is stored into refs[slot].
+     */
+    static long encode(Object value, Object[] refs, int slot) {
+        if (value instanceof Double) {
+            return number((Double) value);
+        }
+        if (value == null) {
+            return NIL;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? TRUE : FALSE;
+        }
+        refs[slot] = value;
+        return REF;
+    }
+
+    static Object decode(long value, Object[] refs, int slot) {
+        if (isNumber(value)) {
+            return asNumber(value);
+        }
+        if (value == NIL) {
+            return null;
+        }
+        if (value == TRUE || value == FALSE) {
+            return value == TRUE;
+        }
+        return refs[slot];
+    }
+
+    static boolean isEqual(long a, long b, Object[] refs, int aSlot, int bSlot) {
+        if (a != REF && b != REF) {
+            return a == b;
+        }
+        return Interpreter.isEqual(decode(a, refs, aSlot), decode(b, refs, bSlot));
+    }
+}
@@ -0,0 +1,333 @@
+package simplf;
+
+import static simplf.NanBox.*;
+import static simplf.Opcode.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes the StackVM's bytecode on a NaN-boxed operand stack: a long[] of
+ * encoded values with a parallel array holding the strings and functions, so
+ * arithmetic and comparisons on the stack allocate nothing. Frames stay the
+ * Environments of the other engines, which hold Objects: their by-name
+ * lookups and the closures' cells are shared with the rest of the runtime,
+ * so values are decoded when stored into a variable and encoded when read.
+ */
+class NanBoxVM implements Engine {
+    private final Environment globals = new Environment();
+    private long[] stack = new long[256];
+    private Object[] refs = new Object[256];
+    // First free operand stack slot of the innermost running chunk.
+    private int sp;
+
+    @Override
+    public Environment globals() {
+        return globals;
+    }
+
+    @Override
+    public void interpret(List<Stmt> stmts) {
+        Chunk chunk = BytecodeCompiler.compileScript(stmts);
+        try {
+            run(chunk, globals);
+        } catch (RuntimeError error) {
+            Simplf.runtimeError(error);
+        } finally {
+            Arrays.fill(refs, null);
+            sp = 0;
+        }
+    }
+
+    private static Chunk chunkOf(Stmt.Function declaration) {
+        if (declaration.chunk == null) {
+            declaration.chunk = BytecodeCompiler.compileFunction(declaration);
+        }
+        return declaration.chunk;
+    }
+
+    // Operator on operands that are not both numbers, or a division by zero.
+    private static long binary(Token op, long left, long right, Object[] refs, int slot) {
+        Object result = Interpreter.binary(op, decode(left, refs, slot), decode(right, refs, slot + 1));
+        return encode(result, refs, slot);
+    }
+
+    /**
+     * Runs a chunk in the given frame. The result is left in the first
+     * operand stack slot of the chunk, where the caller expects it.
+     */
+    private void run(Chunk chunk, Environment frame) {
+        if (sp + chunk.scratch > stack.length) {
+            int length = Math.max(stack.length * 2, sp + chunk.scratch);
+            stack = Arrays.copyOf(stack, length);
+            refs = Arrays.copyOf(refs, length);
+        }
+        final int[] code = chunk.code;
+        final Object[] constants = chunk.constants;
+        final Object[] globalSlots = globals.values;
+        long[] stack = this.stack;
+        Object[] refs = this.refs;
+        final int base = this.sp;
+        int sp = base;
+        int ip = 0;
+        Environment env = frame;
+        Object[] captures = frame instanceof SimplfFunction.HybridEnv
+            ? ((SimplfFunction.HybridEnv) frame).captures
+            : null;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case CONST:
+                    stack[sp] = encode(constants[code[ip++]], refs, sp);
+                    sp++;
+                    break;
+                case POP:
+                    sp--;
+                    break;
+                case GET_LOCAL: {
+                    Object value = env.values[code[ip++]];
+                    if (value == Environment.UNDEFINED) value = env.get((Token) constants[code[ip]]);
+                    ip++;
+                    stack[sp] = encode(value, refs, sp);
+                    sp++;
+                    break;
+                }
+                case GET_LOCAL_CELL: {
+                    Object value = ((Cell) env.values[code[ip++]]).value;
+                    if (value == Environment.UNDEFINED) value = env.get((Token) constants[code[ip]]);
+                    ip++;
+                    stack[sp] = encode(value, refs, sp);
+                    sp++;
+                    break;
+                }
+                case GET_UPVALUE: {
+                    Object value = captures[code[ip++]];
+                    if (value == Environment.UNDEFINED) value = env.get((Token) constants[code[ip]]);
+                    ip++;
+                    stack[sp] = encode(value, refs, sp);
+                    sp++;
+                    break;
+                }
+                case GET_UPVALUE_CELL: {
+                    Object value = ((Cell) captures[code[ip++]]).value;
+                    if (value == Environment.UNDEFINED) value = env.get((Token) constants[code[ip]]);
+                    ip++;
+                    stack[sp] = encode(value, refs, sp);
+                    sp++;
+                    break;
+                }
+                case GET_GLOBAL: {
+                    Object value = globalSlots[code[ip++]];
+                    if (value == Environment.UNDEFINED) value = env.get((Token) constants[code[ip]]);
+                    ip++;
+                    stack[sp] = encode(value, refs, sp);
+                    sp++;
+                    break;
+                }
+                case SET_LOCAL: {
+                    Object value = decode(stack[sp - 1], refs, sp - 1);
+                    if (!Environment.store(env.values, code[ip++], value)) {
+                        env.assign((Token) constants[code[ip]], value);
+                    }
+                    ip++;
+                    break;
+                }
+                case SET_UPVALUE: {
+                    Object value = decode(stack[sp - 1], refs, sp - 1);
+                    if (!Environment.store(captures, code[ip++], value)) {
+                        env.assign((Token) constants[code[ip]], value);
+                    }
+                    ip++;
+                    break;
+                }
+                case SET_GLOBAL: {
+                    Object value = decode(stack[sp - 1], refs, sp - 1);
+                    if (!Environment.store(globalSlots, code[ip++], value)) {
+                        env.assign((Token) constants[code[ip]], value);
+                    }
+                    ip++;
+                    break;
+                }
+                case DEFINE:
+                    sp--;
+                    env.define(code[ip++], decode(stack[sp], refs, sp));
+                    break;
+                case ADD: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? number(asNumber(left) + asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case SUBTRACT: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? number(asNumber(left) - asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case MULTIPLY: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? number(asNumber(left) * asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case DIVIDE: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right) && asNumber(right) != 0.0
+                        ? number(asNumber(left) / asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case GREATER: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? bool(asNumber(left) > asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? bool(asNumber(left) >= asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case LESS: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? bool(asNumber(left) < asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    stack[sp - 1] = isNumber(left) && isNumber(right)
+                        ? bool(asNumber(left) <= asNumber(right))
+                        : binary((Token) constants[code[ip]], left, right, refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case EQUAL: {
+                    sp--;
+                    stack[sp - 1] = bool(isEqual(stack[sp - 1], stack[sp], refs, sp - 1, sp));
+                    break;
+                }
+                case NOT_EQUAL: {
+                    sp--;
+                    stack[sp - 1] = bool(!isEqual(stack[sp - 1], stack[sp], refs, sp - 1, sp));
+                    break;
+                }
+                case NEGATE: {
+                    long right = stack[sp - 1];
+                    stack[sp - 1] = isNumber(right)
+                        ? number(-asNumber(right))
+                        : encode(Interpreter.unary((Token) constants[code[ip]], decode(right, refs, sp - 1)),
+                                 refs, sp - 1);
+                    ip++;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = bool(!isTruthy(stack[sp - 1]));
+                    break;
+                case JUMP:
+                    ip = code[ip];
+                    break;
+                case JUMP_IF_FALSE:
+                    ip = isTruthy(stack[--sp]) ? ip + 1 : code[ip];
+                    break;
+                case JUMP_IF_TRUE_OR_POP:
+                    if (isTruthy(stack[sp - 1])) {
+                        ip = code[ip];
+                    } else {
+                        sp--;
+                        ip++;
+                    }
+                    break;
+                case JUMP_IF_FALSE_OR_POP:
+                    if (!isTruthy(stack[sp - 1])) {
+                        ip = code[ip];
+                    } else {
+                        sp--;
+                        ip++;
+                    }
+                    break;
+                case CALLABLE:
+                    if (stack[sp - 1] != REF || !(refs[sp - 1] instanceof SimplfFunction)) {
+                        throw new RuntimeError((Token) constants[code[ip]], "Can only call functions.");
+                    }
+                    ip++;
+                    break;
+                case CALL: {
+                    int argc = code[ip++];
+                    SimplfFunction function = (SimplfFunction) refs[sp - argc - 1];
+                    if (argc != function.arity()) {
+                        throw new RuntimeError((Token) constants[code[ip]],
+                            "Expected " + function.arity() + " arguments but got " + argc + ".");
+                    }
+                    ip++;
+                    Environment callee = new SimplfFunction.HybridEnv(globals, function, env);
+                    for (int i = 0; i < argc; i++) {
+                        int slot = sp - argc + i;
+                        callee.define(i, decode(stack[slot], refs, slot));
+                    }
+                    sp -= argc + 1;
+                    this.sp = sp;
+                    run(chunkOf(function.declaration), callee);
+                    // The callee may have grown the stack.
+                    stack = this.stack;
+                    refs = this.refs;
+                    sp++;
+                    break;
+                }
+                case CLOSURE:
+                    refs[sp] = new SimplfFunction((Stmt.Function) constants[code[ip++]], env);
+                    stack[sp++] = REF;
+                    break;
+                case PRINT:
+                    sp--;
+                    Interpreter.output.println(decode(stack[sp], refs, sp));
+                    break;
+                case FRAME:
+                    env = new Environment(env, (Layout) constants[code[ip++]]);
+                    break;
+                case END_FRAME:
+                    env = env.enclosing;
+                    break;
+                case ENTER_BLOCK:
+                    env.enterBlock((int[]) constants[code[ip++]]);
+                    break;
+                case EXIT_BLOCK:
+                    env.exitBlock(code[ip], code[ip + 1]);
+                    ip += 2;
+                    break;
+                case RETURN:
+                    sp--;
+                    stack[base] = stack[sp];
+                    refs[base] = refs[sp];
+                    return;
+                case HALT:
+                    this.sp = sp;
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package simplf;
+
+/**
+ * Formats numbers the way SimPL-F prints them: Double.toString without a
+ * trailing ".0". Integral values below 1e7, which Double.toString writes in
+ * plain notation, take a fast path that writes the digits straight into the
+ * destination; the small ones are preformatted.
+ */
+final class Numbers {
+    private static final double PLAIN_LIMIT = 1e7;
+    private static final String[] SMALL = new String[1024];
+    // The interpreter is single-threaded, so one buffer serves every call.
+    private static final StringBuilder scratch = new StringBuilder(32);
+
+    static {
+        for (int i = 0; i < SMALL.length; i++) {
+            SMALL[i] = Integer.toString(i);
+        }
+    }
+
+    private Numbers() {
+
+    }
+
+    static String toString(double value) {
+        int small = (int) value;
+        if (small == value && small >= 0 && small < SMALL.length && !isNegativeZero(value)) {
+            return SMALL[small];
+        }
+        scratch.setLength(0);
+        append(value, scratch);
+        return scratch.toString();
+    }
+
+    static void append(double value, StringBuilder out) {
+        long whole = (long) value;
+        if (whole == value && Math.abs(value) < PLAIN_LIMIT && !isNegativeZero(value)) {
+            out.append(whole);
+            return;
+        }
+        int start = out.length();
+        out.append(value);
+        int end = out.length();
+        if (end - start > 2 && out.charAt(end - 2) == '.' && out.charAt(end - 1) == '0') {
+            out.setLength(end - 2);
+        }
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return Double.doubleToRawLongBits(value) == Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,54 @@
+package simplf;
+
+/**
+ * Instruction set of the stack VM. Operands follow the opcode in the code
+ * array; "token" operands are constant indices of the Token a runtime error
+ * is reported at.
+ */
+final class Opcode {
+    private Opcode() {
+    }
+
+    static final int CONST = 0;              // index: push constants[index]
+    static final int POP = 1;
+    // slot, token: push a variable of the current frame, the current
+    // function's captures or the globals. The _CELL forms read through the
+    // variable's Cell. An undefined slot falls back to the by-name lookup.
+    static final int GET_LOCAL = 2;
+    static final int GET_LOCAL_CELL = 3;
+    static final int GET_UPVALUE = 4;
+    static final int GET_UPVALUE_CELL = 5;
+    static final int GET_GLOBAL = 6;
+    // slot, token: store the top of the stack, leaving it there.
+    static final int SET_LOCAL = 7;
+    static final int SET_UPVALUE = 8;
+    static final int SET_GLOBAL = 9;
+    static final int DEFINE = 10;            // slot: pop into the current frame
+    // token: binary operators on the two topmost values.
+    static final int ADD = 11;
+    static final int SUBTRACT = 12;
+    static final int MULTIPLY = 13;
+    static final int DIVIDE = 14;
+    static final int GREATER = 15;
+    static final int GREATER_EQUAL = 16;
+    static final int LESS = 17;
+    static final int LESS_EQUAL = 18;
+    static final int EQUAL = 19;
+    static final int NOT_EQUAL = 20;
+    static final int NEGATE = 21;            // token
+    static final int NOT = 22;
+    static final int JUMP = 23;              // target
+    static final int JUMP_IF_FALSE = 24;     // target: pops the condition
+    static final int JUMP_IF_TRUE_OR_POP = 25;  // target: keeps the value if it jumps
+    static final int JUMP_IF_FALSE_OR_POP = 26; // target: keeps the value if it jumps
+    static final int CALLABLE = 27;          // token: check the callee on top
+    static final int CALL = 28;              // argc, token
+    static final int CLOSURE = 29;           // index of the Stmt.Function
+    static final int PRINT = 30;
+    static final int FRAME = 31;             // index of the Layout: push a frame
+    static final int END_FRAME = 32;
+    static final int ENTER_BLOCK = 33;       // index of the block's cell slots
+    static final int EXIT_BLOCK = 34;        // start, end
+    static final int RETURN = 35;
+    static final int HALT = 36;
+}
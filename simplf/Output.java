@@ -0,0 +1,101 @@
+package simplf;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sink for the lines print statements write. Lines are encoded to UTF-8
+ * straight into a large buffer that goes to the channel in one write when it
+ * fills or is flushed, instead of taking System.out's lock, charset encoder
+ * and flush on every line. Whoever shows anything else on the terminal, such
+ * as an error or the REPL prompt, flushes it first.
+ */
+final class Output {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    private final StringBuilder digits = new StringBuilder(32);
+    private int count;
+
+    Output(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sink writing to the process's standard output through its FileChannel.
+     */
+    static Output stdout() {
+        return new Output(new FileOutputStream(FileDescriptor.out).getChannel());
+    }
+
+    void println(Object value) {
+        if (value instanceof Double) {
+            digits.setLength(0);
+            Numbers.append((Double) value, digits);
+            write(digits);
+        } else {
+            write(Interpreter.stringify(value));
+        }
+        write(NEWLINE);
+    }
+
+    private void write(CharSequence text) {
+        byte[] buffer = this.buffer;
+        int count = this.count;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            // Room for the longest encoding of a character.
+            if (count > buffer.length - 4) {
+                this.count = count;
+                drain();
+                count = 0;
+            }
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | c >> 6);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | code >> 18);
+                buffer[count++] = (byte) (0x80 | code >> 12 & 0x3F);
+                buffer[count++] = (byte) (0x80 | code >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | code & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired, replaced the way String.getBytes does.
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | c >> 12);
+                buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        this.count = count;
+    }
+
+    void flush() {
+        if (count > 0) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        wrapped.clear().limit(count);
+        count = 0;
+        try {
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        } catch (IOException e) {
+            // Like System.out, drop output the terminal or pipe no longer takes.
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package simplf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Analysis run on a whole resolved program that marks the functions whose
+ * calls may be memoized: a call's result depends only on its arguments, and
+ * making it has no effect but that result. Under the hybrid lexical/dynamic
+ * lookup this takes a function declared by a top-level statement (so it
+ * closes over no variables, let alone mutable cells) whose body
+ * - prints nothing, declares no functions or lambdas, and assigns only its
+ *   own variables;
+ * - reads only its parameters, its local variables where their declarations
+ *   have certainly run, and globals that are declared once, before the
+ *   function, and never assigned, so are defined and unchanging by the time
+ *   it can be called: no read or assignment falls back by name to the
+ *   caller's environment;
+ * - calls only such globals that are pure functions themselves.
+ * Errors are not results; a call that fails is never cached.
+ */
+class Purity implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+    private final Declarations declarations = new Declarations();
+    // Position of the top-level statement declaring each global.
+    private final Map<Symbol, Integer> positions = new HashMap<>();
+    private final Map<Symbol, Function> functions = new HashMap<>();
+    // Function being checked, its position, and the functions its body calls.
+    private Function current;
+    private int position;
+    private Set<Function> callees;
+    // Slots of the local variables certainly defined at the point checked.
+    private Set<Integer> defined;
+
+    void analyze(List<Stmt> program) {
+        declarations.scan(program);
+        for (int i = 0; i < program.size(); i++) {
+            Stmt stmt = program.get(i);
+            if (stmt instanceof Var) {
+                positions.putIfAbsent(((Var) stmt).name.symbol, i);
+            } else if (stmt instanceof Function) {
+                positions.putIfAbsent(((Function) stmt).name.symbol, i);
+                functions.put(((Function) stmt).name.symbol, (Function) stmt);
+            }
+        }
+
+        // Check each body assuming the functions it calls are pure, then
+        // drop the functions calling ones that are not until none is left.
+        Map<Function, Set<Function>> pure = new HashMap<>();
+        for (int i = 0; i < program.size(); i++) {
+            if (program.get(i) instanceof Function) {
+                current = (Function) program.get(i);
+                position = i;
+                callees = new HashSet<>();
+                defined = new HashSet<>();
+                if (stable(current.name.symbol) && all(current.body)) {
+                    pure.put(current, callees);
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = pure.values().removeIf(called -> !pure.keySet().containsAll(called));
+        }
+        for (Function function : pure.keySet()) {
+            function.pure = true;
+        }
+    }
+
+    // The global always holds the value its single declaration gives it.
+    private boolean stable(Symbol name) {
+        return declarations.uniqueGlobal(name) && !declarations.assigned.contains(name);
+    }
+
+    // A global the current function may read: defined before it can be called.
+    private boolean constant(Variable expr) {
+        Symbol name = expr.name.symbol;
+        Integer declared = positions.get(name);
+        return expr.depth == Resolver.GLOBAL && stable(name) && declared != null
+            && (declared < position || name == current.name.symbol);
+    }
+
+    // A parameter or local variable of the current function, already defined.
+    private boolean local(int depth, int slot, boolean upvalue) {
+        return depth == 0 && !upvalue && (slot < current.params.size() || defined.contains(slot));
+    }
+
+    // Checks a statement whose variables go out of scope after it.
+    private boolean nested(Stmt stmt) {
+        Set<Integer> enclosing = new HashSet<>(defined);
+        boolean pure = stmt.accept(this);
+        defined = enclosing;
+        return pure;
+    }
+
+    private boolean all(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (!stmt.accept(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Print stmt) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitExprStmt(Expression stmt) {
+        return stmt.expr.accept(this);
+    }
+
+    @Override
+    public Boolean visitVarStmt(Var stmt) {
+        if (stmt.initializer != null && !stmt.initializer.accept(this)) {
+            return false;
+        }
+        defined.add(stmt.slot);
+        return true;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Block stmt) {
+        Set<Integer> enclosing = new HashSet<>(defined);
+        boolean pure = all(stmt.statements);
+        defined = enclosing;
+        return pure;
+    }
+
+    @Override
+    public Boolean visitIfStmt(If stmt) {
+        return stmt.cond.accept(this) && nested(stmt.thenBranch)
+            && (stmt.elseBranch == null || nested(stmt.elseBranch));
+    }
+
+    @Override
+    public Boolean visitWhileStmt(While stmt) {
+        return stmt.cond.accept(this) && nested(stmt.body);
+    }
+
+    @Override
+    public Boolean visitForStmt(For stmt) {
+        throw new UnsupportedOperationException("For loops are desugared before this pass.");
+    }
+
+    @Override
+    public Boolean visitFunctionStmt(Function stmt) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitBinary(Binary expr) {
+        return expr.left.accept(this) && expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visitUnary(Unary expr) {
+        return expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visitLiteral(Literal expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitGrouping(Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Boolean visitVarExpr(Variable expr) {
+        return local(expr.depth, expr.slot, expr.upvalue) || constant(expr);
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Assign expr) {
+        return expr.value.accept(this) && local(expr.depth, expr.slot, expr.upvalue);
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Logical expr) {
+        return expr.left.accept(this) && expr.right.accept(this);
+    }
+
+    @Override
+    public Boolean visitConditionalExpr(Conditional expr) {
+        return expr.cond.accept(this) && expr.thenBranch.accept(this) && expr.elseBranch.accept(this);
+    }
+
+    @Override
+    public Boolean visitCallExpr(Call expr) {
+        if (!(expr.callee instanceof Variable) || !constant((Variable) expr.callee)) {
+            return false;
+        }
+        Function callee = functions.get(((Variable) expr.callee).name.symbol);
+        if (callee == null) {
+            return false;
+        }
+        callees.add(callee);
+        for (Expr arg : expr.args) {
+            if (!arg.accept(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visitLambda(Lambda expr) {
+        return false;
+    }
+}
@@ -0,0 +1,544 @@
+package simplf;
+
+import static simplf.RegisterOpcode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Compiles resolved, desugared statements into three-address code for the
+ * RegisterVM. Compiling an expression yields the operand holding its value:
+ * literals become constants and plain variable reads name the variable's
+ * register or global slot, so `i = i + 1` is a single ADD from the variable
+ * and a constant into the variable. Other values go to a temporary, or
+ * straight into the variable being assigned.
+ *
+ * A variable operand is only read when its instruction runs, so where code
+ * runs between the read and its use (`x + f()`) the value is first moved
+ * into a temporary, which keeps the tree walker's evaluation order.
+ */
+class RegisterCompiler implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+    private static final int NONE = -1;
+
+    private int[] code = new int[64];
+    private int length;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    // Variable slots of the current frame; the temporaries follow them.
+    private int frameSize;
+    private int temps, maxTemps;
+    // True for top-level code outside any frame, whose declarations are globals.
+    private boolean global;
+    // Where the expression being compiled should put its value, if it can,
+    // and the name of that variable.
+    private int hint = NONE;
+    private Token hintName;
+
+    private RegisterCompiler(int frameSize, boolean global) {
+        this.frameSize = frameSize;
+        this.global = global;
+    }
+
+    /**
+     * Compiles a top-level program, which runs in a frame holding only
+     * temporaries and ends with HALT.
+     */
+    static Chunk compileScript(List<Stmt> stmts) {
+        RegisterCompiler compiler = new RegisterCompiler(0, true);
+        for (Stmt stmt : stmts) {
+            compiler.statement(stmt);
+        }
+        compiler.emit(HALT);
+        return compiler.chunk();
+    }
+
+    /**
+     * Compiles a function body, which returns the value of its last statement
+     * if that is an expression statement, and nil otherwise.
+     */
+    static Chunk compileFunction(Function function) {
+        RegisterCompiler compiler = new RegisterCompiler(function.layout.names.length, false);
+        List<Stmt> body = function.body;
+        for (int i = 0; i < body.size(); i++) {
+            Stmt stmt = body.get(i);
+            if (i == body.size() - 1 && stmt instanceof Expression) {
+                compiler.temps = 0;
+                Expr expr = ((Expression) stmt).expr;
+                int value = compiler.compile(expr, NONE, null);
+                compiler.emit(RETURN, value, compiler.site(null, null, nameOf(expr)));
+                return compiler.chunk();
+            }
+            compiler.statement(stmt);
+        }
+        compiler.emit(RETURN, compiler.constantOperand(null), compiler.site(null, null));
+        return compiler.chunk();
+    }
+
+    private Chunk chunk() {
+        return new Chunk(Arrays.copyOf(code, length), constants.toArray(), maxTemps);
+    }
+
+    // --- Emitting ---
+
+    private void emit(int... words) {
+        for (int word : words) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = word;
+        }
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        return index;
+    }
+
+    private int constantOperand(Object value) {
+        return operand(CONSTANT, constant(value));
+    }
+
+    private int site(Token... tokens) {
+        constants.add(tokens);
+        return constants.size() - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = length;
+    }
+
+    // --- Registers ---
+
+    private int newTemp() {
+        int register = frameSize + temps++;
+        maxTemps = Math.max(maxTemps, temps);
+        return operand(REGISTER, register);
+    }
+
+    private boolean isTemp(int operand) {
+        return operand != NONE && (operand & 3) == REGISTER && operand >> 2 >= frameSize;
+    }
+
+    /**
+     * Destination for a value-producing instruction: the hinted one, or a
+     * fresh temporary.
+     */
+    private int dest(int hint) {
+        return hint != NONE ? hint : newTemp();
+    }
+
+    /**
+     * Copies a variable operand into a temporary, for when code runs before
+     * the instruction that uses it.
+     */
+    private int stabilize(int operand, Token name) {
+        int kind = operand & 3;
+        if (kind == CONSTANT || isTemp(operand)) {
+            return operand;
+        }
+        int temp = newTemp();
+        emit(MOVE, temp, operand, site(null, null, name));
+        return temp;
+    }
+
+    /**
+     * Whether compiling the expression emits any instruction; if not, its
+     * operand is a constant or a plain variable read.
+     */
+    private static boolean emitsCode(Expr expr) {
+        if (expr instanceof Grouping) {
+            return emitsCode(((Grouping) expr).expression);
+        }
+        if (expr instanceof Literal) {
+            return false;
+        }
+        if (expr instanceof Variable) {
+            Variable variable = (Variable) expr;
+            return variable.depth != Resolver.GLOBAL && (variable.upvalue || variable.boxed);
+        }
+        return true;
+    }
+
+    /**
+     * Name of the variable an expression's operand reads, if it reads one.
+     */
+    private static Token nameOf(Expr expr) {
+        if (expr instanceof Grouping) {
+            return nameOf(((Grouping) expr).expression);
+        }
+        if (expr instanceof Variable) {
+            return ((Variable) expr).name;
+        }
+        if (expr instanceof Assign) {
+            Assign assign = (Assign) expr;
+            return readable(assign.depth, assign.upvalue, assign.boxed) ? assign.name : nameOf(assign.value);
+        }
+        if (expr instanceof Binary && ((Binary) expr).op.type == TokenType.COMMA) {
+            return nameOf(((Binary) expr).right);
+        }
+        return null;
+    }
+
+    private static boolean readable(int depth, boolean upvalue, boolean boxed) {
+        return depth == Resolver.GLOBAL || !(upvalue || boxed);
+    }
+
+    private int compile(Expr expr, int hint, Token hintName) {
+        this.hint = hint;
+        this.hintName = hintName;
+        return expr.accept(this);
+    }
+
+    // --- Statements ---
+
+    private void statement(Stmt stmt) {
+        // No temporary lives across statements.
+        temps = 0;
+        stmt.accept(this);
+    }
+
+    /**
+     * Compiles a condition and a jump taken when it is false; returns the
+     * position of the jump target.
+     */
+    private int jumpIfFalse(Expr cond) {
+        while (cond instanceof Grouping) {
+            cond = ((Grouping) cond).expression;
+        }
+        if (cond instanceof Binary) {
+            Binary binary = (Binary) cond;
+            int op;
+            switch (binary.op.type) {
+                case GREATER: op = JUMP_IF_NOT_GREATER; break;
+                case GREATER_EQUAL: op = JUMP_IF_NOT_GREATER_EQUAL; break;
+                case LESS: op = JUMP_IF_NOT_LESS; break;
+                case LESS_EQUAL: op = JUMP_IF_NOT_LESS_EQUAL; break;
+                default: op = NONE; break;
+            }
+            if (op != NONE) {
+                int left = compile(binary.left, NONE, null);
+                if (emitsCode(binary.right)) {
+                    left = stabilize(left, nameOf(binary.left));
+                }
+                int right = compile(binary.right, NONE, null);
+                emit(op, left, right, -1, site(binary.op, null, nameOf(binary.left), nameOf(binary.right)));
+                return length - 2;
+            }
+        }
+        int value = compile(cond, NONE, null);
+        emit(JUMP_IF_FALSE, value, -1, site(null, null, nameOf(cond)));
+        return length - 2;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        int value = compile(stmt.expr, NONE, null);
+        emit(PRINT, value, site(null, null, nameOf(stmt.expr)));
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Expression stmt) {
+        compile(stmt.expr, NONE, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        int value = stmt.initializer != null
+            ? compile(stmt.initializer, NONE, null)
+            : constantOperand(null);
+        Token name = stmt.initializer != null ? nameOf(stmt.initializer) : null;
+        emit(global ? DEFINE_GLOBAL : DEFINE, stmt.slot, value, site(null, null, name));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        if (stmt.layout != null) {
+            emit(FRAME, constant(stmt.layout));
+            int outerSize = frameSize;
+            boolean outerGlobal = global;
+            frameSize = stmt.layout.names.length;
+            global = false;
+            for (Stmt inner : stmt.statements) {
+                statement(inner);
+            }
+            frameSize = outerSize;
+            global = outerGlobal;
+            emit(END_FRAME);
+            return null;
+        }
+        boolean scoped = stmt.end > stmt.start;
+        if (scoped && stmt.cells.length > 0) {
+            emit(ENTER_BLOCK, constant(stmt.cells));
+        }
+        for (Stmt inner : stmt.statements) {
+            statement(inner);
+        }
+        if (scoped) {
+            emit(EXIT_BLOCK, stmt.start, stmt.end);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        int elseJump = jumpIfFalse(stmt.cond);
+        statement(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patch(elseJump);
+            return null;
+        }
+        emit(JUMP, -1);
+        int endJump = length - 1;
+        patch(elseJump);
+        statement(stmt.elseBranch);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        int outerSize = frameSize;
+        boolean outerGlobal = global;
+        if (stmt.layout != null) {
+            emit(FRAME, constant(stmt.layout));
+            frameSize = stmt.layout.names.length;
+            global = false;
+        }
+        int loop = length;
+        temps = 0;
+        int exitJump = jumpIfFalse(stmt.cond);
+        statement(stmt.body);
+        emit(JUMP, loop);
+        patch(exitJump);
+        if (stmt.layout != null) {
+            frameSize = outerSize;
+            global = outerGlobal;
+            emit(END_FRAME);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        // For loops are desugared before compilation.
+        throw new UnsupportedOperationException("For loops are not compiled.");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        int closure = newTemp();
+        emit(CLOSURE, closure, constant(stmt));
+        emit(global ? DEFINE_GLOBAL : DEFINE, stmt.slot, closure, site(null, null));
+        return null;
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Integer visitBinary(Binary expr) {
+        int target = hint;
+        Token targetName = hintName;
+        if (expr.op.type == TokenType.COMMA) {
+            compile(expr.left, NONE, null);
+            return compile(expr.right, target, targetName);
+        }
+        int left = compile(expr.left, NONE, null);
+        if (emitsCode(expr.right)) {
+            left = stabilize(left, nameOf(expr.left));
+        }
+        int right = compile(expr.right, NONE, null);
+        int op;
+        switch (expr.op.type) {
+            case PLUS: op = ADD; break;
+            case MINUS: op = SUBTRACT; break;
+            case STAR: op = MULTIPLY; break;
+            case SLASH: op = DIVIDE; break;
+            case GREATER: op = GREATER; break;
+            case GREATER_EQUAL: op = GREATER_EQUAL; break;
+            case LESS: op = LESS; break;
+            case LESS_EQUAL: op = LESS_EQUAL; break;
+            case EQUAL_EQUAL: op = EQUAL; break;
+            case BANG_EQUAL: op = NOT_EQUAL; break;
+            default:
+                // Operators the interpreter does not evaluate yield nil.
+                return constantOperand(null);
+        }
+        int dst = dest(target);
+        emit(op, dst, left, right, site(expr.op, targetName, nameOf(expr.left), nameOf(expr.right)));
+        return dst;
+    }
+
+    @Override
+    public Integer visitUnary(Unary expr) {
+        int target = hint;
+        Token targetName = hintName;
+        int value = compile(expr.right, NONE, null);
+        int op;
+        switch (expr.op.type) {
+            case MINUS: op = NEGATE; break;
+            case BANG: op = NOT; break;
+            default: return constantOperand(null);
+        }
+        int dst = dest(target);
+        emit(op, dst, value, site(expr.op, targetName, nameOf(expr.right)));
+        return dst;
+    }
+
+    @Override
+    public Integer visitLiteral(Literal expr) {
+        return constantOperand(expr.val);
+    }
+
+    @Override
+    public Integer visitGrouping(Grouping expr) {
+        return compile(expr.expression, hint, hintName);
+    }
+
+    @Override
+    public Integer visitVarExpr(Variable expr) {
+        int target = hint;
+        if (expr.depth == Resolver.GLOBAL) {
+            return operand(GLOBAL, expr.slot);
+        }
+        int op;
+        if (expr.upvalue) {
+            op = expr.boxed ? GET_UPVALUE_CELL : GET_UPVALUE;
+        } else if (expr.boxed) {
+            op = GET_CELL;
+        } else {
+            return operand(REGISTER, expr.slot);
+        }
+        int dst = dest(target);
+        emit(op, dst, expr.slot, site(null, hintName, expr.name));
+        return dst;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Assign expr) {
+        int target = hint;
+        if (readable(expr.depth, expr.upvalue, expr.boxed)) {
+            // Compute the value straight into the variable where possible.
+            int variable = operand(expr.depth == Resolver.GLOBAL ? GLOBAL : REGISTER, expr.slot);
+            int value = compile(expr.value, variable, expr.name);
+            if (value != variable) {
+                emit(MOVE, variable, value, site(null, expr.name, nameOf(expr.value)));
+            }
+            return variable;
+        }
+        // Boxed and captured variables are written through their Cell or
+        // the capture array, and read back from the value's operand.
+        int variable = operand(expr.upvalue ? UPVALUE : REGISTER, expr.slot);
+        int value = compile(expr.value, isTemp(target) ? target : NONE, null);
+        emit(MOVE, variable, value, site(null, expr.name, nameOf(expr.value)));
+        return value;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Logical expr) {
+        int dst = isTemp(hint) ? hint : newTemp();
+        int left = compile(expr.left, dst, null);
+        if (left != dst) {
+            emit(MOVE, dst, left, site(null, null, nameOf(expr.left)));
+        }
+        emit(expr.op.type == TokenType.OR ? JUMP_IF_TRUE : JUMP_IF_FALSE, dst, -1, site(null, null));
+        int endJump = length - 2;
+        int right = compile(expr.right, dst, null);
+        if (right != dst) {
+            emit(MOVE, dst, right, site(null, null, nameOf(expr.right)));
+        }
+        patch(endJump);
+        return dst;
+    }
+
+    @Override
+    public Integer visitConditionalExpr(Conditional expr) {
+        int dst = isTemp(hint) ? hint : newTemp();
+        int elseJump = jumpIfFalse(expr.cond);
+        int then = compile(expr.thenBranch, dst, null);
+        if (then != dst) {
+            emit(MOVE, dst, then, site(null, null, nameOf(expr.thenBranch)));
+        }
+        emit(JUMP, -1);
+        int endJump = length - 1;
+        patch(elseJump);
+        int otherwise = compile(expr.elseBranch, dst, null);
+        if (otherwise != dst) {
+            emit(MOVE, dst, otherwise, site(null, null, nameOf(expr.elseBranch)));
+        }
+        patch(endJump);
+        return dst;
+    }
+
+    @Override
+    public Integer visitCallExpr(Call expr) {
+        int target = hint;
+        Token targetName = hintName;
+        int argc = expr.args.size();
+        boolean simple = !emitsCode(expr.callee);
+        for (Expr arg : expr.args) {
+            simple &= !emitsCode(arg);
+        }
+
+        Token[] site = new Token[3 + argc];
+        site[0] = expr.paren;
+        site[1] = targetName;
+        site[2] = nameOf(expr.callee);
+        int callee = compile(expr.callee, NONE, null);
+        if (!simple) {
+            // Arguments run code: check the callee before they do, as the
+            // tree walker does.
+            callee = stabilize(callee, site[2]);
+            emit(CALLABLE, callee, site(expr.paren, null, site[2]));
+        }
+        int[] args = new int[argc];
+        for (int i = 0; i < argc; i++) {
+            Expr arg = expr.args.get(i);
+            site[3 + i] = nameOf(arg);
+            args[i] = compile(arg, NONE, null);
+            if (!simple && expr.args.subList(i + 1, argc).stream().anyMatch(RegisterCompiler::emitsCode)) {
+                args[i] = stabilize(args[i], site[3 + i]);
+            }
+        }
+        int dst = dest(target);
+        emit(CALL, dst, callee, argc, site(site));
+        emit(args);
+        return dst;
+    }
+
+    @Override
+    public Integer visitLambda(Lambda expr) {
+        int dst = dest(hint);
+        emit(CLOSURE, dst, constant(expr.declaration));
+        return dst;
+    }
+}
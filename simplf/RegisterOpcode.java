@@ -0,0 +1,64 @@
+package simplf;
+
+/**
+ * Instruction set of the register VM. Instructions are three-address: they
+ * name their source and destination operands directly instead of going
+ * through an operand stack. An operand packs a kind into its low two bits
+ * and an index above them: a register of the current frame (its variable
+ * slots followed by the chunk's temporaries), a global slot, a constant, or,
+ * as a destination only, a capture of the running function. The last fixed
+ * operand of most instructions is the constant index of a "site": the
+ * tokens a runtime error or a by-name fallback needs, with the operator at
+ * 0, the destination's name at 1 and the sources' names from 2 on.
+ */
+final class RegisterOpcode {
+    private RegisterOpcode() {
+    }
+
+    static final int REGISTER = 0;
+    static final int GLOBAL = 1;
+    static final int CONSTANT = 2;
+    static final int UPVALUE = 3;
+
+    static int operand(int kind, int index) {
+        return index << 2 | kind;
+    }
+
+    static final int MOVE = 0;               // dst, src, site
+    static final int DEFINE = 1;             // slot, src, site: define in the current frame
+    static final int DEFINE_GLOBAL = 2;      // slot, src, site
+    static final int GET_CELL = 3;           // dst, slot, site: read a boxed local
+    static final int GET_UPVALUE = 4;        // dst, index, site
+    static final int GET_UPVALUE_CELL = 5;   // dst, index, site
+    // dst, left, right, site
+    static final int ADD = 6;
+    static final int SUBTRACT = 7;
+    static final int MULTIPLY = 8;
+    static final int DIVIDE = 9;
+    static final int GREATER = 10;
+    static final int GREATER_EQUAL = 11;
+    static final int LESS = 12;
+    static final int LESS_EQUAL = 13;
+    static final int EQUAL = 14;
+    static final int NOT_EQUAL = 15;
+    static final int NEGATE = 16;            // dst, src, site
+    static final int NOT = 17;               // dst, src, site
+    static final int JUMP = 18;              // target
+    static final int JUMP_IF_FALSE = 19;     // src, target, site
+    static final int JUMP_IF_TRUE = 20;      // src, target, site
+    // left, right, target, site: compare and jump if the comparison is false
+    static final int JUMP_IF_NOT_GREATER = 21;
+    static final int JUMP_IF_NOT_GREATER_EQUAL = 22;
+    static final int JUMP_IF_NOT_LESS = 23;
+    static final int JUMP_IF_NOT_LESS_EQUAL = 24;
+    static final int CALLABLE = 25;          // src, site
+    static final int CALL = 26;              // dst, callee, argc, site, args...
+    static final int CLOSURE = 27;           // dst, index of the Stmt.Function
+    static final int PRINT = 28;             // src, site
+    static final int FRAME = 29;             // index of the Layout
+    static final int END_FRAME = 30;
+    static final int ENTER_BLOCK = 31;       // index of the block's cell slots
+    static final int EXIT_BLOCK = 32;        // start, end
+    static final int RETURN = 33;            // src, site
+    static final int HALT = 34;
+}
@@ -0,0 +1,295 @@
+package simplf;
+
+import static simplf.RegisterOpcode.*;
+
+import java.util.List;
+
+/**
+ * Executes three-address code compiled by the RegisterCompiler. Registers
+ * are the slots of the current Environment frame followed by the chunk's
+ * temporaries, so there is no operand stack, and the frames stay the ones
+ * the tree walker uses: the by-name fallback behaves the same.
+ */
+class RegisterVM implements Engine {
+    private final Environment globals = new Environment();
+
+    @Override
+    public Environment globals() {
+        return globals;
+    }
+
+    @Override
+    public void interpret(List<Stmt> stmts) {
+        Chunk chunk = RegisterCompiler.compileScript(stmts);
+        try {
+            // Top-level code keeps its temporaries in a frame without variables.
+            run(chunk, new Environment(globals, Layout.EMPTY, chunk.scratch));
+        } catch (RuntimeError error) {
+            Simplf.runtimeError(error);
+        }
+    }
+
+    private static Chunk chunkOf(Stmt.Function declaration) {
+        if (declaration.registerChunk == null) {
+            declaration.registerChunk = RegisterCompiler.compileFunction(declaration);
+        }
+        return declaration.registerChunk;
+    }
+
+    private static Object read(int operand, Object[] registers, Object[] globalSlots, Object[] constants) {
+        int index = operand >> 2;
+        switch (operand & 3) {
+            case REGISTER: return registers[index];
+            case GLOBAL: return globalSlots[index];
+            default: return constants[index];
+        }
+    }
+
+    private static boolean write(int operand, Object value, Object[] registers, Object[] globalSlots,
+                                 Object[] captures) {
+        int index = operand >> 2;
+        switch (operand & 3) {
+            case REGISTER: return Environment.store(registers, index, value);
+            case GLOBAL: return Environment.store(globalSlots, index, value);
+            default: return Environment.store(captures, index, value);
+        }
+    }
+
+    // Slow path of an operand whose variable is not defined yet.
+    private static Object lookup(Environment env, Object[] constants, int site, int operand) {
+        return env.get(((Token[]) constants[site])[operand]);
+    }
+
+    private static void assign(Environment env, Object[] constants, int site, Object value) {
+        env.assign(((Token[]) constants[site])[1], value);
+    }
+
+    private static Token token(Object[] constants, int site) {
+        return ((Token[]) constants[site])[0];
+    }
+
+    /**
+     * Runs a chunk in the given frame and returns the value it returns.
+     */
+    private Object run(Chunk chunk, Environment frame) {
+        final int[] code = chunk.code;
+        final Object[] constants = chunk.constants;
+        final Object[] globalSlots = globals.values;
+        Environment env = frame;
+        Object[] registers = frame.values;
+        Object[] captures = frame instanceof SimplfFunction.HybridEnv
+            ? ((SimplfFunction.HybridEnv) frame).captures
+            : null;
+        int ip = 0;
+
+        for (;;) {
+            int op = code[ip];
+            switch (op) {
+                case MOVE:
+                case DEFINE:
+                case DEFINE_GLOBAL: {
+                    int site = code[ip + 3];
+                    Object value = read(code[ip + 2], registers, globalSlots, constants);
+                    if (value == Environment.UNDEFINED) value = lookup(env, constants, site, 2);
+                    if (op == DEFINE) {
+                        env.define(code[ip + 1], value);
+                    } else if (op == DEFINE_GLOBAL) {
+                        globals.define(code[ip + 1], value);
+                    } else if (!write(code[ip + 1], value, registers, globalSlots, captures)) {
+                        assign(env, constants, site, value);
+                    }
+                    ip += 4;
+                    break;
+                }
+                case GET_CELL:
+                case GET_UPVALUE:
+                case GET_UPVALUE_CELL: {
+                    int site = code[ip + 3];
+                    Object value = op == GET_CELL ? registers[code[ip + 2]] : captures[code[ip + 2]];
+                    if (op != GET_UPVALUE) value = ((Cell) value).value;
+                    if (value == Environment.UNDEFINED) value = lookup(env, constants, site, 2);
+                    if (!write(code[ip + 1], value, registers, globalSlots, captures)) {
+                        assign(env, constants, site, value);
+                    }
+                    ip += 4;
+                    break;
+                }
+                case ADD:
+                case SUBTRACT:
+                case MULTIPLY:
+                case DIVIDE:
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case EQUAL:
+                case NOT_EQUAL: {
+                    int site = code[ip + 4];
+                    Object left = read(code[ip + 2], registers, globalSlots, constants);
+                    if (left == Environment.UNDEFINED) left = lookup(env, constants, site, 2);
+                    Object right = read(code[ip + 3], registers, globalSlots, constants);
+                    if (right == Environment.UNDEFINED) right = lookup(env, constants, site, 3);
+                    Object value;
+                    if (left instanceof Double && right instanceof Double) {
+                        double a = (Double) left, b = (Double) right;
+                        switch (op) {
+                            case ADD: value = a + b; break;
+                            case SUBTRACT: value = a - b; break;
+                            case MULTIPLY: value = a * b; break;
+                            case DIVIDE:
+                                value = b != 0.0 ? (Object) (a / b) : Interpreter.binary(token(constants, site), left, right);
+                                break;
+                            case GREATER: value = a > b; break;
+                            case GREATER_EQUAL: value = a >= b; break;
+                            case LESS: value = a < b; break;
+                            case LESS_EQUAL: value = a <= b; break;
+                            case EQUAL: value = Interpreter.isEqual(left, right); break;
+                            default: value = !Interpreter.isEqual(left, right); break;
+                        }
+                    } else if (op == EQUAL) {
+                        value = Interpreter.isEqual(left, right);
+                    } else if (op == NOT_EQUAL) {
+                        value = !Interpreter.isEqual(left, right);
+                    } else {
+                        value = Interpreter.binary(token(constants, site), left, right);
+                    }
+                    if (!write(code[ip + 1], value, registers, globalSlots, captures)) {
+                        assign(env, constants, site, value);
+                    }
+                    ip += 5;
+                    break;
+                }
+                case NEGATE:
+                case NOT: {
+                    int site = code[ip + 3];
+                    Object right = read(code[ip + 2], registers, globalSlots, constants);
+                    if (right == Environment.UNDEFINED) right = lookup(env, constants, site, 2);
+                    Object value = op == NOT
+                        ? !Interpreter.isTruthy(right)
+                        : Interpreter.unary(token(constants, site), right);
+                    if (!write(code[ip + 1], value, registers, globalSlots, captures)) {
+                        assign(env, constants, site, value);
+                    }
+                    ip += 4;
+                    break;
+                }
+                case JUMP:
+                    ip = code[ip + 1];
+                    break;
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE: {
+                    Object cond = read(code[ip + 1], registers, globalSlots, constants);
+                    if (cond == Environment.UNDEFINED) cond = lookup(env, constants, code[ip + 3], 2);
+                    ip = Interpreter.isTruthy(cond) == (op == JUMP_IF_TRUE) ? code[ip + 2] : ip + 4;
+                    break;
+                }
+                case JUMP_IF_NOT_GREATER:
+                case JUMP_IF_NOT_GREATER_EQUAL:
+                case JUMP_IF_NOT_LESS:
+                case JUMP_IF_NOT_LESS_EQUAL: {
+                    int site = code[ip + 4];
+                    Object left = read(code[ip + 1], registers, globalSlots, constants);
+                    if (left == Environment.UNDEFINED) left = lookup(env, constants, site, 2);
+                    Object right = read(code[ip + 2], registers, globalSlots, constants);
+                    if (right == Environment.UNDEFINED) right = lookup(env, constants, site, 3);
+                    boolean holds;
+                    if (left instanceof Double && right instanceof Double) {
+                        double a = (Double) left, b = (Double) right;
+                        switch (op) {
+                            case JUMP_IF_NOT_GREATER: holds = a > b; break;
+                            case JUMP_IF_NOT_GREATER_EQUAL: holds = a >= b; break;
+                            case JUMP_IF_NOT_LESS: holds = a < b; break;
+                            default: holds = a <= b; break;
+                        }
+                    } else {
+                        holds = Interpreter.isTruthy(Interpreter.binary(token(constants, site), left, right));
+                    }
+                    ip = holds ? ip + 5 : code[ip + 3];
+                    break;
+                }
+                case CALLABLE: {
+                    Object callee = read(code[ip + 1], registers, globalSlots, constants);
+                    if (!(callee instanceof SimplfFunction)) {
+                        throw new RuntimeError(token(constants, code[ip + 2]), "Can only call functions.");
+                    }
+                    ip += 3;
+                    break;
+                }
+                case CALL: {
+                    int argc = code[ip + 3];
+                    int site = code[ip + 4];
+                    int args = ip + 5;
+                    Object callee = read(code[ip + 2], registers, globalSlots, constants);
+                    if (callee == Environment.UNDEFINED) callee = lookup(env, constants, site, 2);
+                    if (!(callee instanceof SimplfFunction)) {
+                        throw new RuntimeError(token(constants, site), "Can only call functions.");
+                    }
+                    SimplfFunction function = (SimplfFunction) callee;
+                    if (argc != function.arity()) {
+                        // Arguments are evaluated before the arity check.
+                        for (int i = 0; i < argc; i++) {
+                            if (read(code[args + i], registers, globalSlots, constants) == Environment.UNDEFINED) {
+                                lookup(env, constants, site, 3 + i);
+                            }
+                        }
+                        throw new RuntimeError(token(constants, site),
+                            "Expected " + function.arity() + " arguments but got " + argc + ".");
+                    }
+                    Chunk body = chunkOf(function.declaration);
+                    Environment callFrame = new SimplfFunction.HybridEnv(globals, function, env, body.scratch);
+                    for (int i = 0; i < argc; i++) {
+                        Object arg = read(code[args + i], registers, globalSlots, constants);
+                        if (arg == Environment.UNDEFINED) arg = lookup(env, constants, site, 3 + i);
+                        callFrame.define(i, arg);
+                    }
+                    Object value = run(body, callFrame);
+                    if (!write(code[ip + 1], value, registers, globalSlots, captures)) {
+                        assign(env, constants, site, value);
+                    }
+                    ip = args + argc;
+                    break;
+                }
+                case CLOSURE: {
+                    Object function = new SimplfFunction((Stmt.Function) constants[code[ip + 2]], env);
+                    write(code[ip + 1], function, registers, globalSlots, captures);
+                    ip += 3;
+                    break;
+                }
+                case PRINT: {
+                    Object value = read(code[ip + 1], registers, globalSlots, constants);
+                    if (value == Environment.UNDEFINED) value = lookup(env, constants, code[ip + 2], 2);
+                    Interpreter.output.println(value);
+                    ip += 3;
+                    break;
+                }
+                case FRAME:
+                    env = new Environment(env, (Layout) constants[code[ip + 1]], chunk.scratch);
+                    registers = env.values;
+                    ip += 2;
+                    break;
+                case END_FRAME:
+                    env = env.enclosing;
+                    registers = env.values;
+                    ip += 1;
+                    break;
+                case ENTER_BLOCK:
+                    env.enterBlock((int[]) constants[code[ip + 1]]);
+                    ip += 2;
+                    break;
+                case EXIT_BLOCK:
+                    env.exitBlock(code[ip + 1], code[ip + 2]);
+                    ip += 3;
+                    break;
+                case RETURN: {
+                    Object value = read(code[ip + 1], registers, globalSlots, constants);
+                    if (value == Environment.UNDEFINED) value = lookup(env, constants, code[ip + 2], 2);
+                    return value;
+                }
+                case HALT:
+                    return null;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + op);
+            }
+        }
+    }
+}
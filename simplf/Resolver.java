@@ -0,0 +1,561 @@
+package simplf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simplf.Expr.Assign;
+import simplf.Expr.Binary;
+import simplf.Expr.Call;
+import simplf.Expr.Conditional;
+import simplf.Expr.Grouping;
+import simplf.Expr.Lambda;
+import simplf.Expr.Literal;
+import simplf.Expr.Logical;
+import simplf.Expr.Unary;
+import simplf.Expr.Variable;
+import simplf.Stmt.Block;
+import simplf.Stmt.Expression;
+import simplf.Stmt.For;
+import simplf.Stmt.Function;
+import simplf.Stmt.If;
+import simplf.Stmt.Print;
+import simplf.Stmt.Var;
+import simplf.Stmt.While;
+
+/**
+ * Static pass run after desugaring that binds every variable reference to a
+ * (depth, slot) address, so the interpreter can reach a variable with a fixed
+ * number of enclosing-frame hops and an array index instead of hashing names.
+ *
+ * Each block, function and lambda is one scope. Only functions and lambdas
+ * (and the outermost block or loop of top-level code) get a runtime
+ * Environment frame, sized from the slot layout recorded on the declaring
+ * node; a nested block just owns a range of slots in that frame, which the
+ * interpreter clears on entry and exit instead of allocating a new frame.
+ * All declarations of a scope are slotted up front,
+ * so a reference always binds to the nearest scope that could hold the name;
+ * if that slot has not been defined yet when the reference runs, the
+ * interpreter falls back to the by-name lookup (outer scopes, then the
+ * blocks the caller was running, or all of top-level code's scopes), which
+ * keeps the hybrid lexical/dynamic semantics. The frame layout records where
+ * a function's nested blocks start for that.
+ *
+ * The pass also performs closure conversion: a function or lambda captures
+ * only the outer variables it (or a function nested in it) refers to. A
+ * captured variable that is never reassigned and is already defined where the
+ * closure is created is copied by value; any other captured variable is boxed
+ * into a Cell shared by its frame and the closures.
+ *
+ * Names that no enclosing local scope declares are bound to a global slot.
+ * The global scope persists across calls so REPL lines share it.
+ *
+ * Finally, calls a function body ends with are marked as tail calls, which
+ * the tree walker runs after leaving the caller's frame.
+ */
+public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int GLOBAL = -1;
+
+    /**
+     * A local variable and how closures use it.
+     */
+    private static class Decl {
+        final Symbol name;
+        boolean captured, mutated, capturedUndefined;
+
+        Decl(Symbol name) {
+            this.name = name;
+        }
+
+        boolean boxed() {
+            return captured && (mutated || capturedUndefined);
+        }
+    }
+
+    /**
+     * One block, function or lambda scope.
+     */
+    private static class Scope {
+        // Name to slot in the frame, for the scope's own declarations.
+        final Map<Symbol, Integer> slots = new LinkedHashMap<>();
+        final List<Decl> decls = new ArrayList<>();
+        // Declarations that have run by the current point of the traversal.
+        final Set<Symbol> defined = new HashSet<>();
+        // Function the scope belongs to; null for blocks of top-level code.
+        final FunctionScope function;
+        // Scope owning the frame the slots live in, and the names of all
+        // slots of that frame when this scope is the owner.
+        final Scope frame;
+        final List<Symbol> frameNames;
+        // First slot of the scope's own declarations.
+        final int start;
+
+        Scope(FunctionScope function, Scope enclosing) {
+            this.function = function;
+            if (enclosing == null) {
+                this.frame = this;
+                this.frameNames = new ArrayList<>();
+            } else {
+                this.frame = enclosing.frame;
+                this.frameNames = null;
+            }
+            this.start = frame.frameNames.size();
+        }
+
+        Decl decl(int slot) {
+            return decls.get(slot - start);
+        }
+    }
+
+    /**
+     * Captures collected for one function or lambda.
+     */
+    private static class FunctionScope {
+        // Index of the function's own scope in the scope stack.
+        final int base;
+        final List<Capture> captures = new ArrayList<>();
+        final Map<Decl, Integer> indices = new HashMap<>();
+
+        FunctionScope(int base) {
+            this.base = base;
+        }
+    }
+
+    /**
+     * A resolved address, before it is copied onto the referencing node.
+     */
+    private static class Ref {
+        final int depth, slot;
+        final boolean upvalue;
+        final Decl decl;
+
+        Ref(int depth, int slot, boolean upvalue, Decl decl) {
+            this.depth = depth;
+            this.slot = slot;
+            this.upvalue = upvalue;
+            this.decl = decl;
+        }
+    }
+
+    private final Map<Symbol, Integer> globals = new LinkedHashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    // Boxing is only known once a variable's whole scope has been seen, so
+    // nodes and captures get their boxed flag at the end of the pass.
+    private final List<Runnable> patches = new ArrayList<>();
+
+    public Resolver() {
+
+    }
+
+    public void resolve(List<Stmt> stmts) {
+        declareAll(stmts);
+        for (Stmt stmt : stmts) {
+            stmt.accept(this);
+        }
+        for (Runnable patch : patches) {
+            patch.run();
+        }
+        patches.clear();
+    }
+
+    /**
+     * Names of all global slots handed out so far, in slot order.
+     */
+    Symbol[] globalNames() {
+        return globals.keySet().toArray(new Symbol[0]);
+    }
+
+    // --- Scope helpers ---
+
+    private void declare(Token name) {
+        if (scopes.isEmpty()) {
+            declareGlobal(name);
+            return;
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        Integer slot = scope.slots.get(name.symbol);
+        if (slot != null) {
+            // A redeclaration overwrites the same slot.
+            scope.decl(slot).mutated = true;
+            return;
+        }
+        scope.slots.put(name.symbol, scope.frame.frameNames.size());
+        scope.frame.frameNames.add(name.symbol);
+        scope.decls.add(new Decl(name.symbol));
+    }
+
+    private int declareGlobal(Token name) {
+        Integer slot = globals.get(name.symbol);
+        if (slot == null) {
+            slot = globals.size();
+            globals.put(name.symbol, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Slots every var and fun declared directly in a statement list, before
+     * any of them is resolved.
+     */
+    private void declareAll(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Var) {
+                declare(((Var) stmt).name);
+            } else if (stmt instanceof Function) {
+                declare(((Function) stmt).name);
+            }
+        }
+    }
+
+    /**
+     * Records that the declaration of a name in the current scope has run,
+     * and returns its slot.
+     */
+    private int define(Token name) {
+        if (scopes.isEmpty()) {
+            return globals.get(name.symbol);
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        scope.defined.add(name.symbol);
+        return scope.slots.get(name.symbol);
+    }
+
+    private Scope current() {
+        return scopes.isEmpty() ? null : scopes.get(scopes.size() - 1);
+    }
+
+    /**
+     * Pops the current scope and returns the slots of its own declarations
+     * that must hold a Cell.
+     */
+    private int[] endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        return scope.decls.stream()
+            .filter(Decl::boxed)
+            .mapToInt(decl -> scope.slots.get(decl.name))
+            .toArray();
+    }
+
+    private static Layout layout(Scope owner, int[] cells) {
+        return new Layout(owner.frameNames.toArray(new Symbol[0]), cells, owner.decls.size());
+    }
+
+    /**
+     * Number of frames between the scope at index from and the (enclosing)
+     * scope at index to.
+     */
+    private int hops(int from, int to) {
+        int hops = 0;
+        for (int i = from; i > to; i--) {
+            if (scopes.get(i).frame == scopes.get(i)) {
+                hops++;
+            }
+        }
+        return hops;
+    }
+
+    private void resolveFunction(Function function) {
+        FunctionScope fn = new FunctionScope(scopes.size());
+        Scope scope = new Scope(fn, null);
+        scopes.add(scope);
+        for (Token param : function.params) {
+            declare(param);
+            scope.defined.add(param.symbol);
+        }
+        declareAll(function.body);
+        for (Stmt stmt : function.body) {
+            stmt.accept(this);
+        }
+        function.layout = layout(scope, endScope());
+        function.captures = fn.captures.toArray(new Capture[0]);
+        markTail(function.body);
+    }
+
+    /**
+     * Marks the tail calls of a function body. The last statement's value is
+     * the function's result; past it, the tail positions are the branches of
+     * an If and the last statement of a block, whose calls run for their
+     * effect alone.
+     */
+    private static void markTail(List<Stmt> body) {
+        if (body.isEmpty()) {
+            return;
+        }
+        Stmt last = body.get(body.size() - 1);
+        if (last instanceof Expression) {
+            markTail(((Expression) last).expr);
+        } else {
+            markTail(last);
+        }
+    }
+
+    private static void markTail(Stmt stmt) {
+        if (stmt instanceof Expression) {
+            ((Expression) stmt).tail = true;
+            markTail(((Expression) stmt).expr);
+        } else if (stmt instanceof If) {
+            markTail(((If) stmt).thenBranch);
+            if (((If) stmt).elseBranch != null) {
+                markTail(((If) stmt).elseBranch);
+            }
+        } else if (stmt instanceof Block) {
+            List<Stmt> statements = ((Block) stmt).statements;
+            if (!statements.isEmpty()) {
+                markTail(statements.get(statements.size() - 1));
+            }
+        }
+    }
+
+    private static void markTail(Expr expr) {
+        if (expr instanceof Call) {
+            ((Call) expr).tail = true;
+        } else if (expr instanceof Grouping) {
+            markTail(((Grouping) expr).expression);
+        } else if (expr instanceof Logical) {
+            // The right operand's value is the result when it runs.
+            markTail(((Logical) expr).right);
+        } else if (expr instanceof Conditional) {
+            markTail(((Conditional) expr).thenBranch);
+            markTail(((Conditional) expr).elseBranch);
+        }
+    }
+
+    /**
+     * Binds a reference to the nearest scope declaring the name. When that
+     * declaration may not have run yet, the outer scopes declaring the same
+     * name are captured too, so the by-name fallback can still reach them.
+     */
+    private Ref reference(Token name, boolean assign) {
+        int top = scopes.size() - 1;
+        FunctionScope fn = top >= 0 ? scopes.get(top).function : null;
+        Ref primary = null;
+        for (int i = top; i >= 0; i--) {
+            Scope scope = scopes.get(i);
+            Integer slot = scope.slots.get(name.symbol);
+            if (slot == null) {
+                continue;
+            }
+            Decl decl = scope.decl(slot);
+            if (assign) {
+                decl.mutated = true;
+            }
+            Ref ref = scope.function == fn
+                ? new Ref(hops(top, i), slot, false, decl)
+                : new Ref(hops(top, fn.base), capture(fn, i, slot), true, decl);
+            if (primary == null) {
+                primary = ref;
+            }
+            if (scope.defined.contains(name.symbol)) {
+                break;
+            }
+        }
+        if (primary == null) {
+            return new Ref(GLOBAL, declareGlobal(name), false, null);
+        }
+        return primary;
+    }
+
+    /**
+     * Returns the capture index of a variable in the given function, adding
+     * it (and capturing it in the enclosing functions) if needed.
+     */
+    private int capture(FunctionScope fn, int scopeIndex, int slot) {
+        Scope scope = scopes.get(scopeIndex);
+        Decl decl = scope.decl(slot);
+        Integer index = fn.indices.get(decl);
+        if (index != null) {
+            return index;
+        }
+        // The closure is created in the scope just outside the function.
+        int site = fn.base - 1;
+        FunctionScope outer = scopes.get(site).function;
+        Capture capture = scope.function == outer
+            ? new Capture(decl.name, hops(site, scopeIndex), slot, false)
+            : new Capture(decl.name, hops(site, outer.base), capture(outer, scopeIndex, slot), true);
+        decl.captured = true;
+        if (!scope.defined.contains(decl.name)) {
+            decl.capturedUndefined = true;
+        }
+        patches.add(() -> capture.boxed = decl.boxed());
+        fn.captures.add(capture);
+        fn.indices.put(decl, fn.captures.size() - 1);
+        return fn.captures.size() - 1;
+    }
+
+    // --- Statements ---
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(Expression stmt) {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        stmt.slot = define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        Scope enclosing = current();
+        Scope scope = new Scope(enclosing == null ? null : enclosing.function, enclosing);
+        scopes.add(scope);
+        declareAll(stmt.statements);
+        for (Stmt inner : stmt.statements) {
+            inner.accept(this);
+        }
+        int[] cells = endScope();
+        if (enclosing == null) {
+            // Outermost block of top-level code: it needs a frame of its own,
+            // unless nothing inside it declares anything.
+            stmt.layout = scope.frameNames.isEmpty() ? null : layout(scope, cells);
+        } else {
+            stmt.start = scope.start;
+            stmt.end = scope.start + scope.decls.size();
+            stmt.cells = cells;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        stmt.cond.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        if (!scopes.isEmpty()) {
+            stmt.cond.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
+        // A top-level loop owns the frame for the blocks in its body, so
+        // every iteration reuses one frame.
+        Scope scope = new Scope(null, null);
+        scopes.add(scope);
+        stmt.cond.accept(this);
+        stmt.body.accept(this);
+        endScope();
+        stmt.layout = scope.frameNames.isEmpty() ? null : layout(scope, new int[0]);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        // For loops are desugared before resolution.
+        throw new UnsupportedOperationException("For loops are not resolved.");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        resolveFunction(stmt);
+        // The name is bound only once the closure exists.
+        stmt.slot = define(stmt.name);
+        return null;
+    }
+
+    // --- Expressions ---
+
+    @Override
+    public Void visitBinary(Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Variable expr) {
+        Ref ref = reference(expr.name, false);
+        expr.depth = ref.depth;
+        expr.slot = ref.slot;
+        expr.upvalue = ref.upvalue;
+        if (ref.decl != null) {
+            patches.add(() -> expr.boxed = ref.decl.boxed());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        expr.value.accept(this);
+        Ref ref = reference(expr.name, true);
+        expr.depth = ref.depth;
+        expr.slot = ref.slot;
+        expr.upvalue = ref.upvalue;
+        if (ref.decl != null) {
+            patches.add(() -> expr.boxed = ref.decl.boxed());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Conditional expr) {
+        expr.cond.accept(this);
+        expr.thenBranch.accept(this);
+        expr.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        expr.callee.accept(this);
+        for (Expr arg : expr.args) {
+            arg.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLambda(Lambda expr) {
+        // A lambda runs like an anonymous function whose body is one expression.
+        expr.declaration = new Function(
+            new Token(TokenType.FUN, "lambda", null, 0, 0),
+            expr.params,
+            List.of(new Expression(expr.body)));
+        resolveFunction(expr.declaration);
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package simplf;
+
+import java.util.ArrayDeque;
+
+/**
+ * A string value built by concatenation. Appending only links the two
+ * pieces, so building a long string piecewise takes linear time; the text
+ * is flattened once, the first time it is printed, compared or hashed, and
+ * the pieces are then dropped. Strings and ropes are the same SimPL-F type.
+ */
+final class Rope implements CharSequence {
+    // Concatenations shorter than this are copied right away.
+    private static final int SHORT = 64;
+
+    private CharSequence left, right;
+    private final int length;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /**
+     * The + of two values, at least one of them a string.
+     */
+    static Object concat(Object left, Object right) {
+        CharSequence l = piece(left), r = piece(right);
+        int length = l.length() + r.length();
+        if (length < SHORT) {
+            return l.toString().concat(r.toString());
+        }
+        if (r.length() == 0) {
+            return l;
+        }
+        if (l.length() == 0) {
+            return r;
+        }
+        return new Rope(l, r, length);
+    }
+
+    private static CharSequence piece(Object value) {
+        return isString(value) ? (CharSequence) value : Interpreter.stringify(value);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flatten();
+        }
+        return flat;
+    }
+
+    // Ropes built in a loop are as deep as the loop is long, so the walk
+    // keeps its own stack instead of recursing.
+    private void flatten() {
+        StringBuilder text = new StringBuilder(length);
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                Rope rope = (Rope) piece;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                text.append(piece.toString());
+            }
+        }
+        flat = text.toString();
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,10 +1,14 @@
 package simplf; 
 
+/**
+ * A SimPL-F runtime error. Only the message and token are ever reported, so
+ * the Java stack trace is not captured, which keeps throwing it cheap.
+ */
 class RuntimeError extends RuntimeException {
     final Token token;
 
     RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
 
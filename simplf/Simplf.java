@@ -18,21 +18,88 @@ import simplf.parser.simplfParser;
 public class Simplf {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    // Report the tree walker's promotions of hot code on stderr.
+    static boolean traceTiers = false;
+    // Calls the stack engine lets be in progress at once; its call stack
+    // lives on the heap, so only memory bounds it.
+    static int maxDepth = 1 << 20;
+    // Results of pure functions' calls, with --memoize; null otherwise.
+    static MemoCache memo;
+    private static Engine engine = new Interpreter();
+    private static final Resolver resolver = new Resolver();
 
     public static void main(String args[]) throws IOException {
-        if (args.length > 1) {
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String path = null;
+        boolean depthGiven = false;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = engine(arg.substring("--engine=".length()));
+            } else if (arg.equals("--trace-tiers")) {
+                traceTiers = true;
+            } else if (arg.equals("--memoize")) {
+                memo = new MemoCache(MemoCache.CAPACITY);
+            } else if (arg.startsWith("--max-depth=")) {
+                maxDepth = depth(arg.substring("--max-depth=".length()));
+                depthGiven = true;
+                if (maxDepth <= 0) {
+                    engine = null;
+                }
+            } else if (path == null && !arg.startsWith("--")) {
+                path = arg;
+            } else {
+                engine = null;
+            }
+            if (engine == null) {
+                usage();
+            }
+        }
+        // Only the tree walker and the closure engine consult the cache.
+        if (memo != null && !(engine instanceof Interpreter || engine instanceof ClosureEngine)) {
+            usage();
+        }
+        // Only the stack engine bounds its call stack itself.
+        if (depthGiven && !(engine instanceof StackVM)) {
+            usage();
+        }
+        if (path != null) {
+            runFile(path);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.err.println("Usage: simplf [--engine=tree|jit|closure|stack|nanbox|register] [--trace-tiers] [--max-depth=N (stack only)] [--memoize] [script]");
+        System.exit(64);
+    }
+
+    static Engine engine(String name) {
+        switch (name) {
+            case "tree": return new Interpreter();
+            // The tree walker compiling every function and loop as early as it can.
+            case "jit": return new Interpreter(1, 1);
+            case "closure": return new ClosureEngine();
+            case "stack": return new StackVM();
+            case "nanbox": return new NanBoxVM();
+            case "register": return new RegisterVM();
+            default: return null;
+        }
+    }
+
+    private static int depth(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(new String(bytes, Charset.defaultCharset()), true);
+        if (memo != null) {
+            System.err.println("[memo] " + memo.stats());
+        }
         if (hadError)
             System.exit(65);
         if (hadRuntimeError)
@@ -45,17 +112,43 @@ public class Simplf {
 
         for (;;) {
             System.out.print("> ");
+            System.out.flush();
             String line = br.readLine();
             if (line == null)
                 break;
-            run(line);
+            run(line, false);
             hadError = false;
             hadRuntimeError = false;
         }
     }
 
 
-    private static void run(String source) {
+    /**
+     * Runs source code; a whole program, unlike a REPL line that later
+     * lines can add to, is fully optimized and, when memoizing, has its pure
+     * functions found.
+     */
+    private static void run(String source, boolean wholeProgram) {
+        List<Stmt> desugared_statements = optimize(parse(source), wholeProgram);
+
+        resolver.resolve(desugared_statements);
+        engine.globals().extend(resolver.globalNames());
+        if (wholeProgram && memo != null) {
+            new Purity().analyze(desugared_statements);
+        }
+
+        try {
+            engine.interpret(desugared_statements);
+        } finally {
+            // Before the exit status, the next prompt, or an uncaught crash.
+            Interpreter.output.flush();
+        }
+    }
+
+    /**
+     * Parses and desugars source code.
+     */
+    static List<Stmt> parse(String source) {
         CharStream input = CharStreams.fromString(source);
         simplfLexer lex = new simplf.parser.simplfLexer(input);
         CommonTokenStream tokens = new CommonTokenStream(lex);
@@ -72,7 +165,18 @@ public class Simplf {
         //System.out.println("Desugared program:");
         //print_program(desugared_statements);
 
-        interpreter.interpret(desugared_statements);
+        return desugared_statements;
+    }
+
+    /**
+     * Runs the optimization passes over desugared code. Those that rely on
+     * seeing every declaration and assignment only run on a whole program.
+     */
+    static List<Stmt> optimize(List<Stmt> statements, boolean wholeProgram) {
+        if (wholeProgram) {
+            statements = new Inliner().inline(statements);
+        }
+        return new ConstantFolder(wholeProgram).fold(statements);
     }
 
     static void error(int line, int col, String message) {
@@ -93,6 +197,7 @@ public class Simplf {
     }
 
     public static void runtimeError(RuntimeError error) {
+        Interpreter.output.flush();
         System.err.println(error.getMessage() + ": [line " + error.token.line + " col " + error.token.col + "]");
         hadRuntimeError = true;
     }
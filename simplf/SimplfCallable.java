@@ -1,11 +1,35 @@
-package simplf; 
-
-import java.util.List;
+package simplf;
 
 interface SimplfCallable {
 
-    Object call(Interpreter interpreter, List<Object> args);
-    
+    /**
+     * Calls with the arguments in an array; callers have checked that there
+     * are arity() of them.
+     */
+    Object call(Interpreter interpreter, Object[] args);
+
+    // Entry points for the common arities, which pass no argument array.
+
+    default Object call(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] {a});
+    }
+
+    default Object call(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] {a, b});
+    }
+
+    default Object call(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] {a, b, c});
+    }
+
+    default Object call(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, new Object[] {a, b, c, d});
+    }
+
     // Used by the Interpreter to check the number of arguments passed in a call.
-    int arity(); 
-}
\ No newline at end of file
+    int arity();
+}
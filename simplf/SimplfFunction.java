@@ -1,92 +1,246 @@
 package simplf;
- 
-import java.util.List;
+
+import java.util.Arrays;
 
 /**
  * Represents a user-defined function object (closure).
  * Implements SimplfCallable for execution.
  */
 class SimplfFunction implements SimplfCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    // One entry per declaration.captures: the value itself, or the shared Cell.
+    private final Object[] captures;
 
     /**
-     * Creates a function object, capturing the environment where it was defined.
+     * Creates a function object, capturing the free variables it uses from the
+     * environment where it was defined. Nothing else of that environment is kept.
      */
-    SimplfFunction(Stmt.Function declaration, Environment closure) {
+    SimplfFunction(Stmt.Function declaration, Environment site) {
         this.declaration = declaration;
-        this.closure = closure; 
+        this.captures = new Object[declaration.captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            Capture capture = declaration.captures[i];
+            Environment frame = site.ancestor(capture.depth);
+            captures[i] = capture.upvalue
+                ? ((HybridEnv) frame).captures[capture.slot]
+                : frame.values[capture.slot];
+        }
     }
-    
+
     @Override
     public int arity() {
         return declaration.params.size();
     }
 
-    // Hybrid environment wrapper: lexical (primary) with dynamic fallback to caller
-    private static class HybridEnv extends Environment {
-        private final Environment primary;
-        private final Environment fallback;
+    // Hybrid function frame: lexical lookup through the frame, the captured
+    // variables and the globals, with dynamic fallback to the caller's
+    // environment for names none of them hold.
+    static class HybridEnv extends Environment {
+        final Object[] captures;
+        private final Capture[] captureNames;
+        private Environment fallback;
+        // First slot of the nested blocks, the only ones functions called
+        // from this frame see by name.
+        private final int blocks;
+
+        HybridEnv(Environment globals, SimplfFunction function, Environment fallback) {
+            this(globals, function, fallback, 0);
+        }
 
-        HybridEnv(Environment primary, Environment fallback) {
-            // Do not chain via super; we only delegate.
-            super((Environment) null);
-            this.primary = primary;
+        HybridEnv(Environment globals, SimplfFunction function, Environment fallback, int temps) {
+            super(globals, function.declaration.layout, temps);
+            this.captures = function.captures;
+            this.captureNames = function.declaration.captures;
             this.fallback = fallback;
+            this.blocks = function.declaration.layout.blocks;
+        }
+
+        @Override
+        Object lookupLocal(Symbol varName) {
+            Object value = super.lookupLocal(varName);
+            for (int i = 0; value == UNDEFINED && i < captures.length; i++) {
+                if (captureNames[i].name == varName) {
+                    value = unbox(captures[i]);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        boolean assignLocal(Symbol varName, Object value) {
+            if (super.assignLocal(varName, value)) {
+                return true;
+            }
+            for (int i = 0; i < captures.length; i++) {
+                if (captureNames[i].name == varName && store(captures, i, value)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         @Override
         Object get(Token name) {
-            return primary.getOrFallback(name, fallback);
+            return getOrFallback(name, fallback);
         }
 
         @Override
         void assign(Token name, Object value) {
-            primary.assignOrFallback(name, value, fallback);
+            assignOrFallback(name, value, fallback);
         }
 
         @Override
-        void define(Token tok, String name, Object value) {
-            primary.define(tok, name, value);
+        Object lookupDynamic(Symbol varName) {
+            for (int i = names.length - 1; i >= blocks; i--) {
+                if (names[i] == varName) {
+                    Object value = unbox(values[i]);
+                    if (value != UNDEFINED) return value;
+                }
+            }
+            return UNDEFINED;
+        }
+
+        @Override
+        boolean assignDynamic(Symbol varName, Object value) {
+            for (int i = names.length - 1; i >= blocks; i--) {
+                if (names[i] == varName && store(values, i, value)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
+    // The entry points bind the arguments straight into the parameter
+    // slots of a new frame, whose dynamic fallback is the caller's environment.
+
+    @Override
+    public Object call(Interpreter interpreter) {
+        return run(interpreter, new HybridEnv(interpreter.globals, this, interpreter.environment));
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object a) {
+        HybridEnv frame = new HybridEnv(interpreter.globals, this, interpreter.environment);
+        frame.define(0, a);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object a, Object b) {
+        HybridEnv frame = new HybridEnv(interpreter.globals, this, interpreter.environment);
+        frame.define(0, a);
+        frame.define(1, b);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object a, Object b, Object c) {
+        HybridEnv frame = new HybridEnv(interpreter.globals, this, interpreter.environment);
+        frame.define(0, a);
+        frame.define(1, b);
+        frame.define(2, c);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        HybridEnv frame = new HybridEnv(interpreter.globals, this, interpreter.environment);
+        frame.define(0, a);
+        frame.define(1, b);
+        frame.define(2, c);
+        frame.define(3, d);
+        return run(interpreter, frame);
+    }
+
     @Override
-    public Object call(Interpreter interpreter, List<Object> args) {
-        // Lexical closure for locals
-        Environment functionFrame = new Environment(closure);
-        // Dynamic fallback via caller env
-        Environment callerEnv = interpreter.environment;
-        Environment hybrid = new HybridEnv(functionFrame, callerEnv);
+    public Object call(Interpreter interpreter, Object[] args) {
+        return run(interpreter, frame(interpreter.globals, args, interpreter.environment));
+    }
 
-        // Bind arguments to parameters in the function frame (lexical locals)
-        for (int i = 0; i < arity(); i++) {
-            Token param = declaration.params.get(i);
-            functionFrame.define(param, param.lexeme, args.get(i));
+    private HybridEnv frame(Environment globals, Object[] args, Environment caller) {
+        HybridEnv frame = new HybridEnv(globals, this, caller);
+        for (int i = 0; i < args.length; i++) {
+            frame.define(i, args[i]);
         }
+        return frame;
+    }
 
-        // Execute the function body and capture the last expression's value implicitly
-        Object lastValue = null;
+    // Runs the call, or for a pure function looks its result up in the
+    // memo cache first when memoizing.
+    private Object run(Interpreter interpreter, HybridEnv frame) {
+        MemoCache memo = Simplf.memo;
+        if (memo == null || !declaration.pure) {
+            return execute(interpreter, frame);
+        }
+        Object[] args = Arrays.copyOf(frame.values, arity());
+        Object result = memo.get(declaration, args);
+        if (result == MemoCache.MISSING) {
+            result = execute(interpreter, frame);
+            memo.put(declaration, args, result);
+        }
+        return result;
+    }
+
+    // Runs the body in the frame, then the tail calls it ends with.
+    private Object execute(Interpreter interpreter, HybridEnv frame) {
         Environment previous = interpreter.environment;
         try {
-            interpreter.environment = hybrid;
+            Object result = invoke(interpreter, frame);
+            // Tail calls come back here to run, so they do not nest.
+            boolean discard = false;
+            while (result instanceof TailCall) {
+                TailCall next = (TailCall) result;
+                discard |= next.discard;
+                SimplfFunction function = next.function;
+                result = function.invoke(interpreter, function.frame(interpreter.globals, next.args, next.caller));
+            }
+            return discard ? null : result;
+        } finally {
+            interpreter.environment = previous;
+        }
+    }
+
+    /**
+     * Runs the body once in a frame holding the arguments. A call the body
+     * ends with is returned as a TailCall instead of being made.
+     */
+    private Object invoke(Interpreter interpreter, HybridEnv functionFrame) {
+        // Hot functions run as JVM bytecode; the count stops at the threshold.
+        JitCode code = declaration.jitCode;
+        if (code == null && declaration.calls < interpreter.callThreshold
+                && ++declaration.calls == interpreter.callThreshold) {
+            code = interpreter.promote(declaration);
+        }
+
+        // Execute the function body and capture the last expression's value implicitly
+        Object lastValue = null;
+        interpreter.environment = functionFrame;
+        if (code != null) {
+            lastValue = code.run(interpreter, functionFrame, captures);
+        } else {
             for (int i = 0; i < declaration.body.size(); i++) {
                 Stmt stmt = declaration.body.get(i);
                 if (i == declaration.body.size() - 1 && stmt instanceof Stmt.Expression) {
                     Stmt.Expression exprStmt = (Stmt.Expression) stmt;
                     lastValue = interpreter.evaluate(exprStmt.expr);
                 } else {
-                    interpreter.execute(stmt);
+                    // Only the last statement can end with a tail call.
+                    lastValue = interpreter.execute(stmt);
                 }
             }
-            return lastValue;
-        } finally {
-            interpreter.environment = previous;
         }
+        if (lastValue instanceof TailCall) {
+            // The body is done; the callee looks names up in this frame but
+            // never follows its fallback, so a chain of tail calls does not
+            // keep every frame before it alive.
+            functionFrame.fallback = null;
+        }
+        return lastValue;
     }
 
     @Override
     public String toString() {
         return "<fn " + declaration.name.lexeme + ">";
     }
-}
\ No newline at end of file
+}
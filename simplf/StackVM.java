@@ -0,0 +1,380 @@
+package simplf;
+
+import static simplf.Opcode.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes programs compiled by the BytecodeCompiler on a dispatch loop over
+ * a flat instruction stream and a shared operand stack. Frames are the same
+ * Environments the tree walker uses, so the by-name fallback (late
+ * definitions and the dynamic lookup through the caller) behaves the same.
+ *
+ * A call does not recurse on the Java stack: the caller's position is saved
+ * in a heap-allocated call stack and the loop carries on in the callee, so
+ * recursion is as deep as Simplf.maxDepth and the heap allow.
+ */
+class StackVM implements Engine {
+    private final Environment globals = new Environment();
+    private Object[] stack = new Object[256];
+    // First free operand stack slot of the innermost running chunk.
+    private int sp;
+    // Suspended callers, innermost last; the records are reused.
+    private CallFrame[] frames = new CallFrame[64];
+
+    /**
+     * Where a caller resumes once its callee returns.
+     */
+    private static final class CallFrame {
+        Chunk chunk;
+        int ip;
+        int sp;
+        Environment env;
+        Object[] captures;
+    }
+
+    @Override
+    public Environment globals() {
+        return globals;
+    }
+
+    @Override
+    public void interpret(List<Stmt> stmts) {
+        Chunk chunk = BytecodeCompiler.compileScript(stmts);
+        try {
+            run(chunk, globals);
+        } catch (RuntimeError error) {
+            Simplf.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, null);
+            for (CallFrame frame : frames) {
+                if (frame != null) {
+                    frame.env = null;
+                    frame.captures = null;
+                }
+            }
+            sp = 0;
+        }
+    }
+
+    private static Chunk chunkOf(Stmt.Function declaration) {
+        if (declaration.chunk == null) {
+            declaration.chunk = BytecodeCompiler.compileFunction(declaration);
+        }
+        return declaration.chunk;
+    }
+
+    // Makes room on the operand stack for a chunk starting at sp.
+    private Object[] reserve(int sp, Chunk chunk) {
+        if (sp + chunk.scratch > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + chunk.scratch));
+        }
+        return stack;
+    }
+
+    /**
+     * Runs a chunk in the given frame, together with every call it makes,
+     * and returns the value it returns.
+     */
+    private Object run(Chunk chunk, Environment frame) {
+        final int maxDepth = Simplf.maxDepth;
+        final Object[] globalSlots = globals.values;
+        Object[] stack = reserve(sp, chunk);
+        int[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        int sp = this.sp;
+        int ip = 0;
+        int depth = 0;
+        Environment env = frame;
+        Object[] captures = frame instanceof SimplfFunction.HybridEnv
+            ? ((SimplfFunction.HybridEnv) frame).captures
+            : null;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case CONST:
+                    stack[sp++] = constants[code[ip++]];
+                    break;
+                case POP:
+                    sp--;
+                    break;
+                case GET_LOCAL: {
+                    Object value = env.values[code[ip++]];
+                    ip++;
+                    stack[sp++] = value != Environment.UNDEFINED
+                        ? value
+                        : env.get((Token) constants[code[ip - 1]]);
+                    break;
+                }
+                case GET_LOCAL_CELL: {
+                    Object value = ((Cell) env.values[code[ip++]]).value;
+                    ip++;
+                    stack[sp++] = value != Environment.UNDEFINED
+                        ? value
+                        : env.get((Token) constants[code[ip - 1]]);
+                    break;
+                }
+                case GET_UPVALUE: {
+                    Object value = captures[code[ip++]];
+                    ip++;
+                    stack[sp++] = value != Environment.UNDEFINED
+                        ? value
+                        : env.get((Token) constants[code[ip - 1]]);
+                    break;
+                }
+                case GET_UPVALUE_CELL: {
+                    Object value = ((Cell) captures[code[ip++]]).value;
+                    ip++;
+                    stack[sp++] = value != Environment.UNDEFINED
+                        ? value
+                        : env.get((Token) constants[code[ip - 1]]);
+                    break;
+                }
+                case GET_GLOBAL: {
+                    Object value = globalSlots[code[ip++]];
+                    ip++;
+                    stack[sp++] = value != Environment.UNDEFINED
+                        ? value
+                        : env.get((Token) constants[code[ip - 1]]);
+                    break;
+                }
+                case SET_LOCAL:
+                    if (!Environment.store(env.values, code[ip++], stack[sp - 1])) {
+                        env.assign((Token) constants[code[ip]], stack[sp - 1]);
+                    }
+                    ip++;
+                    break;
+                case SET_UPVALUE:
+                    if (!Environment.store(captures, code[ip++], stack[sp - 1])) {
+                        env.assign((Token) constants[code[ip]], stack[sp - 1]);
+                    }
+                    ip++;
+                    break;
+                case SET_GLOBAL:
+                    if (!Environment.store(globalSlots, code[ip++], stack[sp - 1])) {
+                        env.assign((Token) constants[code[ip]], stack[sp - 1]);
+                    }
+                    ip++;
+                    break;
+                case DEFINE:
+                    env.define(code[ip++], stack[--sp]);
+                    break;
+                case ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left + (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left - (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left * (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double && (Double) right != 0.0) {
+                        stack[sp - 1] = (Double) left / (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left > (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left >= (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left < (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (Double) left <= (Double) right;
+                    } else {
+                        stack[sp - 1] = Interpreter.binary((Token) constants[code[ip]], left, right);
+                    }
+                    ip++;
+                    break;
+                }
+                case EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case NEGATE:
+                    stack[sp - 1] = Interpreter.unary((Token) constants[code[ip++]], stack[sp - 1]);
+                    break;
+                case NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case JUMP:
+                    ip = code[ip];
+                    break;
+                case JUMP_IF_FALSE: {
+                    Object cond = stack[--sp];
+                    ip = Interpreter.isTruthy(cond) ? ip + 1 : code[ip];
+                    break;
+                }
+                case JUMP_IF_TRUE_OR_POP:
+                    if (Interpreter.isTruthy(stack[sp - 1])) {
+                        ip = code[ip];
+                    } else {
+                        sp--;
+                        ip++;
+                    }
+                    break;
+                case JUMP_IF_FALSE_OR_POP:
+                    if (!Interpreter.isTruthy(stack[sp - 1])) {
+                        ip = code[ip];
+                    } else {
+                        sp--;
+                        ip++;
+                    }
+                    break;
+                case CALLABLE:
+                    if (!(stack[sp - 1] instanceof SimplfFunction)) {
+                        throw new RuntimeError((Token) constants[code[ip]], "Can only call functions.");
+                    }
+                    ip++;
+                    break;
+                case CALL: {
+                    int argc = code[ip++];
+                    SimplfFunction function = (SimplfFunction) stack[sp - argc - 1];
+                    if (argc != function.arity()) {
+                        throw new RuntimeError((Token) constants[code[ip]],
+                            "Expected " + function.arity() + " arguments but got " + argc + ".");
+                    }
+                    if (depth == maxDepth) {
+                        throw new RuntimeError((Token) constants[code[ip]], "Stack overflow.");
+                    }
+                    ip++;
+                    SimplfFunction.HybridEnv callee = new SimplfFunction.HybridEnv(globals, function, env);
+                    for (int i = 0; i < argc; i++) {
+                        callee.define(i, stack[sp - argc + i]);
+                    }
+                    sp -= argc + 1;
+                    if (depth == frames.length) {
+                        frames = Arrays.copyOf(frames, depth * 2);
+                    }
+                    CallFrame caller = frames[depth];
+                    if (caller == null) {
+                        caller = frames[depth] = new CallFrame();
+                    }
+                    depth++;
+                    caller.chunk = chunk;
+                    caller.ip = ip;
+                    caller.sp = sp;
+                    caller.env = env;
+                    caller.captures = captures;
+                    chunk = chunkOf(function.declaration);
+                    stack = reserve(sp, chunk);
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = 0;
+                    env = callee;
+                    captures = callee.captures;
+                    break;
+                }
+                case CLOSURE:
+                    stack[sp++] = new SimplfFunction((Stmt.Function) constants[code[ip++]], env);
+                    break;
+                case PRINT:
+                    Interpreter.output.println(stack[--sp]);
+                    break;
+                case FRAME:
+                    env = new Environment(env, (Layout) constants[code[ip++]]);
+                    break;
+                case END_FRAME:
+                    env = env.enclosing;
+                    break;
+                case ENTER_BLOCK:
+                    env.enterBlock((int[]) constants[code[ip++]]);
+                    break;
+                case EXIT_BLOCK:
+                    env.exitBlock(code[ip], code[ip + 1]);
+                    ip += 2;
+                    break;
+                case RETURN: {
+                    Object result = stack[--sp];
+                    if (depth == 0) {
+                        return result;
+                    }
+                    CallFrame caller = frames[--depth];
+                    chunk = caller.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = caller.ip;
+                    sp = caller.sp;
+                    env = caller.env;
+                    captures = caller.captures;
+                    caller.env = null;
+                    caller.captures = null;
+                    stack[sp++] = result;
+                    break;
+                }
+                case HALT:
+                    this.sp = sp;
+                    return null;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+}
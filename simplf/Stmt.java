@@ -26,6 +26,9 @@ public abstract class Stmt {
 
     public static class Expression extends Stmt {
         final Expr expr;
+        // Ends an If branch in tail position of its function, set by the
+        // Resolver: a tail call it makes is passed on, its value dropped.
+        boolean tail;
 
         public Expression(Expr expr) {
             this.expr = expr;
@@ -53,6 +56,8 @@ public abstract class Stmt {
     public static class Var extends Stmt {
         final Token name;
         final Expr initializer;
+        // Slot in the declaring scope, filled in by the Resolver.
+        int slot = -1;
 
         public Var(Token name, Expr initializer) {
             this.name = name;
@@ -67,6 +72,12 @@ public abstract class Stmt {
 
     public static class Block extends Stmt {
         final List<Stmt> statements;
+        // Filled in by the Resolver: the layout of the block's own frame if
+        // it needs one, otherwise its slot range in the enclosing frame and
+        // the slots in that range holding a Cell.
+        Layout layout;
+        int start, end;
+        int[] cells;
 
         public Block(List<Stmt> statements) {
             this.statements = statements;
@@ -96,6 +107,13 @@ public abstract class Stmt {
     public static class While extends Stmt {
         final Expr cond;
         final Stmt body;
+        // Layout of the frame a top-level loop allocates for its body's
+        // blocks, filled in by the Resolver.
+        Layout layout;
+        // Back-edges taken so far in the tree walker, and the loop compiled
+        // by the JitCompiler once it is hot.
+        int backEdges;
+        JitCode jitCode;
 
         public While(Expr cond, Stmt body) {
             this.cond = cond;
@@ -127,6 +145,22 @@ public abstract class Stmt {
         Token name;
         List<Token> params;
         List<Stmt> body;
+        // Slot of the name in the declaring scope, slot layout of the call
+        // frame and captured variables, filled in by the Resolver.
+        int slot = -1;
+        Layout layout;
+        Capture[] captures;
+        // Body compiled for the stack or register VM or the closure
+        // engine, on the function's first call there.
+        Chunk chunk, registerChunk;
+        Evaluator closureBody;
+        // Calls so far in the tree walker, and the body compiled by the
+        // JitCompiler once the function is hot.
+        int calls;
+        JitCode jitCode;
+        // Calls depend only on their arguments and have no effects, as found
+        // by Purity, so engines may answer them from the MemoCache.
+        boolean pure;
 
         public Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -0,0 +1,43 @@
+package simplf;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An interned identifier. The parser turns every occurrence of a name into
+ * the one Symbol for it, so names compare by reference and hash by a small
+ * precomputed id instead of by their characters.
+ */
+public final class Symbol {
+    private static final Map<String, Symbol> table = new HashMap<>();
+
+    final String name;
+    final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * Returns the unique Symbol for a name, creating it on first use.
+     */
+    public static Symbol intern(String name) {
+        Symbol symbol = table.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name, table.size());
+            table.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,33 @@
+package simplf;
+
+/**
+ * A call in tail position, handed back by the body making it instead of
+ * being run there. SimplfFunction.call runs it once that body has returned,
+ * so a chain of tail calls, recursive or not, takes a single Java frame.
+ */
+final class TailCall {
+    final SimplfFunction function;
+    final Object[] args;
+    // Where the call was made from: the callee's dynamic fallback.
+    final Environment caller;
+    // The call ended an If branch, so the caller returns nil, not its result.
+    boolean discard;
+
+    TailCall(SimplfFunction function, Object[] args, Environment caller) {
+        this.function = function;
+        this.args = args;
+        this.caller = caller;
+    }
+
+    /**
+     * Outcome of an expression statement in tail position: the tail call it
+     * ended with, its result to be dropped, or nothing.
+     */
+    static Object discarding(Object value) {
+        if (value instanceof TailCall) {
+            ((TailCall) value).discard = true;
+            return value;
+        }
+        return null;
+    }
+}
@@ -5,6 +5,8 @@ public class Token {
     final int line, col;
     final String lexeme;
     final Object literal;
+    // Interned name of an IDENTIFIER token; null for other tokens.
+    final Symbol symbol;
 
     public Token(TokenType type, String lexeme, Object literal, int line, int col) {
         this.type = type;
@@ -12,6 +14,19 @@ public class Token {
         this.literal = literal;
         this.line = line;
         this.col = col;
+        this.symbol = null;
+    }
+
+    /**
+     * Creates an IDENTIFIER token; the lexeme is the symbol's shared name.
+     */
+    public Token(Symbol symbol, int line, int col) {
+        this.type = TokenType.IDENTIFIER;
+        this.lexeme = symbol.name;
+        this.literal = symbol.name;
+        this.line = line;
+        this.col = col;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,22 @@
+package simplf;
+
+/**
+ * Thrown by a typed evaluation path when the value turns out not to have the
+ * expected type. It carries the value, already computed, so the caller can
+ * continue on the generic path without evaluating anything twice.
+ */
+class UnexpectedResult extends Exception {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResult {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        throw new UnexpectedResult(value);
+    }
+}
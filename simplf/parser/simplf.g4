@@ -85,7 +85,7 @@ literal returns [Object val]:   STRINGLIT  {$val = $STRINGLIT.text.substring(1,$
                             |   NIL     {$val = null;};
 
 
-id returns [simplf.Token val]: ident=IDENTIFIER {$val = new simplf.Token(simplf.TokenType.IDENTIFIER, $ident.text, $ident.text, $ident.line, $ident.pos);};
+id returns [simplf.Token val]: ident=IDENTIFIER {$val = new simplf.Token(simplf.Symbol.intern($ident.text), $ident.line, $ident.pos);};
 
 or returns [simplf.Token val]: OR {$val = new simplf.Token(simplf.TokenType.OR, $OR.text, null, $OR.line, $OR.pos);};
 and returns [simplf.Token val]: AND {$val = new simplf.Token(simplf.TokenType.AND, $AND.text, null, $AND.line, $AND.pos);};
@@ -1486,7 +1486,7 @@ public class simplfParser extends Parser {
 			{
 			setState(332);
 			((IdContext)_localctx).ident = match(IDENTIFIER);
-			((IdContext)_localctx).val =  new simplf.Token(simplf.TokenType.IDENTIFIER, (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getText():null), (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getText():null), (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getLine():0), (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getCharPositionInLine():0));
+			((IdContext)_localctx).val =  new simplf.Token(simplf.Symbol.intern((((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getText():null)), (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getLine():0), (((IdContext)_localctx).ident!=null?((IdContext)_localctx).ident.getCharPositionInLine():0));
 			}
 		}
 		catch (RecognitionException re) {